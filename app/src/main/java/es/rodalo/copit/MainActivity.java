@@ -26,6 +26,8 @@ import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentTransaction;
 import android.support.v4.content.LocalBroadcastManager;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.view.View;
 
 import java.util.Date;
@@ -37,9 +39,12 @@ import es.rodalo.copit.fragments.DestFragment;
 import es.rodalo.copit.fragments.SourceFragment;
 import es.rodalo.copit.migrations.MigrationManager;
 import es.rodalo.copit.services.CopyService;
+import es.rodalo.copit.utils.CopyJob;
+import es.rodalo.copit.utils.CopyProgress;
 import es.rodalo.copit.utils.Error;
 import es.rodalo.copit.utils.Message;
 import es.rodalo.copit.utils.Preferences;
+import es.rodalo.copit.utils.RunSummary;
 
 /**
  * Actividad principal de la aplicación
@@ -138,9 +143,7 @@ public class MainActivity extends FragmentActivity {
 
         try {
 
-            Intent intent = new Intent(this, CopyService.class);
-
-            startService(intent);
+            CopyService.start(this);
 
         } catch (Exception ex) {
             Message.error(mDestFragment.getView(), ex.getMessage());
@@ -164,11 +167,11 @@ public class MainActivity extends FragmentActivity {
     /**
      * Ejecuta las acciones necesarias al avanzar en el proceso de copia
      */
-    private void onCopyProgress(int progress, int total) {
+    private void onCopyProgress(int progress, int total, long bytes, long totalBytes, long remaining) {
 
         if (mDestFragment.isAdded()) {
             mDestFragment.showProgressPanel();
-            mDestFragment.updateProgress(progress, total);
+            mDestFragment.updateProgress(progress, total, bytes, totalBytes, remaining);
         }
     }
 
@@ -176,10 +179,10 @@ public class MainActivity extends FragmentActivity {
     /**
      * Ejecuta las acciones necesarias al finalizar el proceso de copia
      */
-    private void onCopyEnded(boolean success) {
+    private void onCopyEnded(boolean success, RunSummary summary) {
 
         if (success) {
-            Message.success(mDestFragment.getView(), getString(R.string.message_copy_success));
+            Message.success(mDestFragment.getView(), getSuccessMessage(summary));
             Preferences.setLastTime(new Date());
         }
 
@@ -208,7 +211,52 @@ public class MainActivity extends FragmentActivity {
 
         Message.error(mDestFragment.getView(), message);
 
-        onCopyEnded(false);
+        onCopyEnded(false, null);
+    }
+
+
+    /**
+     * Ejecuta las acciones necesarias cuando algunos archivos no se han podido copiar,
+     * ofreciendo volver a copiar sólo esos
+     */
+    private void onCopyPartiallyEnded(int failed) {
+
+        Message.error(mDestFragment.getView(), getString(R.string.message_copy_partial, failed),
+                getString(R.string.button_retry), new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        CopyService.start(MainActivity.this, CopyService.createJob(CopyJob.Mode.RETRY_FAILED));
+                    }
+                });
+
+        onCopyEnded(false, null);
+    }
+
+
+    /**
+     * Ejecuta las acciones necesarias cuando el usuario cancela la copia
+     */
+    private void onCopyCancelled() {
+
+        Message.error(mDestFragment.getView(), getString(R.string.message_copy_cancelled));
+
+        onCopyEnded(false, null);
+    }
+
+
+    /**
+     * Obtiene el mensaje de copia finalizada con el resumen de lo copiado
+     */
+    private String getSuccessMessage(RunSummary summary) {
+
+        if (summary == null || summary.filesCopied == 0) {
+            return getString(R.string.message_copy_success);
+        }
+
+        return getString(R.string.message_copy_success_summary,
+                summary.filesCopied,
+                Formatter.formatShortFileSize(this, summary.bytesCopied),
+                DateUtils.formatElapsedTime(summary.copyMillis / 1000));
     }
 
 
@@ -231,16 +279,24 @@ public class MainActivity extends FragmentActivity {
 
                     int progress = intent.getIntExtra(CopyService.RESPONSE_PROGRESS, 0);
                     int total = intent.getIntExtra(CopyService.RESPONSE_TOTAL, 0);
+                    long bytes = intent.getLongExtra(CopyService.RESPONSE_BYTES, 0);
+                    long totalBytes = intent.getLongExtra(CopyService.RESPONSE_TOTAL_BYTES, 0);
+                    long remaining = intent.getLongExtra(CopyService.RESPONSE_REMAINING, CopyProgress.UNKNOWN);
 
-                    onCopyProgress(progress, total);
+                    onCopyProgress(progress, total, bytes, totalBytes, remaining);
                     break;
 
                 case CopyService.ACTION_END:
 
-                    boolean result = intent.getBooleanExtra(CopyService.RESPONSE_RESULT, false);
+                    CopyService.Result result = (CopyService.Result) intent.getSerializableExtra(CopyService.RESPONSE_RESULT);
+                    RunSummary summary = (RunSummary) intent.getSerializableExtra(CopyService.RESPONSE_SUMMARY);
 
-                    if (result) {
-                        onCopyEnded(true);
+                    if (result == CopyService.Result.SUCCESS) {
+                        onCopyEnded(true, summary);
+                    } else if (result == CopyService.Result.PARTIAL) {
+                        onCopyPartiallyEnded(intent.getIntExtra(CopyService.RESPONSE_FAILED, 0));
+                    } else if (result == CopyService.Result.CANCELLED) {
+                        onCopyCancelled();
                     } else {
                         Exception exception = (Exception) intent.getSerializableExtra(CopyService.RESPONSE_ERROR);
                         onCopyError(exception);
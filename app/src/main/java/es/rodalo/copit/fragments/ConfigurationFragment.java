@@ -17,13 +17,22 @@
 package es.rodalo.copit.fragments;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.CheckBoxPreference;
+import android.preference.Preference;
 import android.preference.PreferenceCategory;
 import android.preference.PreferenceFragment;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import es.rodalo.copit.R;
+import es.rodalo.copit.utils.ApplicationContext;
+import es.rodalo.copit.utils.IoThrottle;
+import es.rodalo.copit.utils.MediaIndex;
 import es.rodalo.copit.utils.Preferences;
 import es.rodalo.copit.utils.Sources;
 
@@ -32,11 +41,26 @@ import es.rodalo.copit.utils.Sources;
  */
 public class ConfigurationFragment extends PreferenceFragment {
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private ExecutorService mExecutor;
+
+
     @Override
     public void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        mExecutor = Executors.newSingleThreadExecutor();
+
         addPreferencesFromResource(R.xml.configuration);
+
+        findPreference(Preferences.PREF_THROTTLE_RATE).setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                updateThrottleBurst(!"0".equals(newValue));
+                return true;
+            }
+        });
     }
 
 
@@ -45,6 +69,25 @@ public class ConfigurationFragment extends PreferenceFragment {
         super.onResume();
 
         loadSources();
+
+        updateThrottleBurst(Preferences.getThrottleRate() != IoThrottle.UNLIMITED);
+    }
+
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        mExecutor.shutdownNow();
+    }
+
+
+    /**
+     * La copia de golpe sólo tiene sentido si hay una velocidad máxima
+     */
+    private void updateThrottleBurst(boolean limited) {
+
+        findPreference(Preferences.PREF_THROTTLE_BURST).setEnabled(limited);
     }
 
 
@@ -59,6 +102,8 @@ public class ConfigurationFragment extends PreferenceFragment {
 
         List<Sources> selectedSources = Preferences.getSelectedSources();
 
+        final List<CheckBoxPreference> checks = new ArrayList<>();
+
         for (Sources source : Sources.values()) {
 
             CheckBoxPreference check = new CheckBoxPreference(getActivity());
@@ -72,7 +117,48 @@ public class ConfigurationFragment extends PreferenceFragment {
             check.setDefaultValue(false);
 
             sourcesCategory.addPreference(check);
+            checks.add(check);
         }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadCounts(checks);
+            }
+        });
+    }
+
+
+    /**
+     * Cuenta en segundo plano los archivos de cada origen y los que faltan por copiar, y los muestra
+     * en su checkbox. Sólo se consulta el índice: se actualiza al mostrar los orígenes o al copiar,
+     * pero la primera vez hay que leerlo del disco.
+     */
+    private void loadCounts(final List<CheckBoxPreference> checks) {
+
+        MediaIndex index = ApplicationContext.getMediaIndex();
+
+        final List<MediaIndex.Counts> counts = new ArrayList<>();
+
+        for (Sources source : Sources.values()) {
+            counts.add(index.count(source.getActivePaths()));
+        }
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+
+                if (!isAdded()) {
+                    return;
+                }
+
+                for (int i = 0; i < checks.size(); i++) {
+                    if (counts.get(i).files > 0) {
+                        checks.get(i).setSummary(getString(R.string.label_source_pending, counts.get(i).files, counts.get(i).pending));
+                    }
+                }
+            }
+        });
     }
 
 }
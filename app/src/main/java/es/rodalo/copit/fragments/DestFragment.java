@@ -26,9 +26,11 @@ import android.os.Bundle;
 import android.os.Environment;
 import android.support.v4.app.Fragment;
 import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Button;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -40,6 +42,7 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 import butterknife.Unbinder;
 import es.rodalo.copit.R;
+import es.rodalo.copit.services.CopyService;
 import es.rodalo.copit.utils.Preferences;
 
 /**
@@ -60,6 +63,8 @@ public class DestFragment extends Fragment {
     @BindView(R.id.dest_progress_panel) LinearLayout mProgressPanel;
     @BindView(R.id.dest_progress_bar) ProgressBar mProgressBar;
     @BindView(R.id.dest_progress_subtitle) TextView mProgressSubtitle;
+    @BindView(R.id.dest_progress_remaining) TextView mProgressRemaining;
+    @BindView(R.id.dest_progress_cancel_button) Button mProgressCancelButton;
 
 
     /**
@@ -133,6 +138,16 @@ public class DestFragment extends Fragment {
     }
 
 
+    /**
+     * Cancela la copia en marcha
+     */
+    @OnClick(R.id.dest_progress_cancel_button)
+    public void cancelCopy() {
+        mProgressCancelButton.setEnabled(false);
+        CopyService.cancel(getContext());
+    }
+
+
     /**
      * Muestra el nombre de la carpeta de destino o un aviso si no existe
      */
@@ -192,6 +207,7 @@ public class DestFragment extends Fragment {
      * Muestra la barra de progreso
      */
     public void showProgressPanel() {
+        mProgressCancelButton.setEnabled(true);
         mProgressPanel.setVisibility(View.VISIBLE);
         mMainPanel.setVisibility(View.GONE);
         mSelectFolderPanel.setVisibility(View.GONE);
@@ -199,15 +215,30 @@ public class DestFragment extends Fragment {
 
 
     /**
-     * Actualiza el valor de la barra de progreso según los valores indicados
+     * Actualiza el valor de la barra de progreso según los valores indicados.
+     * La barra avanza según los bytes copiados, o según los archivos si no se conocen.
      */
-    public void updateProgress(int progress, int total) {
+    public void updateProgress(int progress, int total, long bytes, long totalBytes, long remaining) {
 
         progress = (progress >= 0) ? progress : 0;
         total = (total > 0) ? total : 1;
 
-        mProgressBar.setProgress((progress * 100) / total);
-        mProgressSubtitle.setText(getString(R.string.label_copy_progress, progress, total));
+        if (totalBytes > 0) {
+            mProgressBar.setProgress((int) ((Math.max(bytes, 0) * 100) / totalBytes));
+            mProgressSubtitle.setText(getString(R.string.label_copy_progress_bytes, progress, total,
+                    Formatter.formatShortFileSize(getContext(), bytes),
+                    Formatter.formatShortFileSize(getContext(), totalBytes)));
+        } else {
+            mProgressBar.setProgress((progress * 100) / total);
+            mProgressSubtitle.setText(getString(R.string.label_copy_progress, progress, total));
+        }
+
+        if (remaining > 0) {
+            mProgressRemaining.setVisibility(View.VISIBLE);
+            mProgressRemaining.setText(getString(R.string.label_copy_remaining, DateUtils.formatElapsedTime(remaining / 1000)));
+        } else {
+            mProgressRemaining.setVisibility(View.GONE);
+        }
     }
 
 
@@ -216,6 +247,7 @@ public class DestFragment extends Fragment {
      */
     public void hideProgress() {
         mProgressBar.setProgress(0);
+        mProgressRemaining.setVisibility(View.GONE);
         mProgressPanel.setVisibility(View.GONE);
         mMainPanel.setVisibility(View.VISIBLE);
         mSelectFolderPanel.setVisibility(View.GONE);
@@ -17,6 +17,8 @@
 package es.rodalo.copit.fragments;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -28,15 +30,19 @@ import android.widget.TextView;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.Unbinder;
 import es.rodalo.copit.R;
-import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.ApplicationContext;
+import es.rodalo.copit.utils.MediaScanner;
 import es.rodalo.copit.utils.Preferences;
+import es.rodalo.copit.utils.RecentImages;
 import es.rodalo.copit.utils.Sources;
 import es.rodalo.copit.views.adapters.ImageAdapter;
 
@@ -47,6 +53,9 @@ public class SourceFragment extends Fragment {
 
     private List<Sources> mSelectedSources;
 
+    private ScheduledExecutorService mExecutor;
+    private MediaScanner mScanner;
+
     private Unbinder unbinder;
 
     @BindView(R.id.source_select_sources_panel) LinearLayout mSelectSourcesPanel;
@@ -75,14 +84,43 @@ public class SourceFragment extends Fragment {
     }
 
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+        mScanner = new MediaScanner(ApplicationContext.getMediaIndex(), mExecutor, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+
+
     @Override
     public void onResume() {
         super.onResume();
 
         mSelectedSources = Preferences.getSelectedSources();
 
-        updateLabels();
-        loadPhotos();
+        if (mSelectedSources.isEmpty()) {
+            showSelectSourcesPanel();
+        } else {
+            showMainPanel();
+            scanSources();
+        }
+    }
+
+
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        mScanner.cancel();
     }
 
 
@@ -94,6 +132,14 @@ public class SourceFragment extends Fragment {
     }
 
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        mExecutor.shutdownNow();
+    }
+
+
     /**
      * Muestra el panel principal
      */
@@ -112,76 +158,53 @@ public class SourceFragment extends Fragment {
     }
 
 
-
     /**
-     * Muestra el nombre de la carpeta de origen y el contador de archivos
+     * Recorre en segundo plano las carpetas de los orígenes seleccionados, leyendo del disco
+     * sólo las que han cambiado desde la última vez. Los contadores se van mostrando según se
+     * recorre cada carpeta, y las fotos al terminar.
      */
-    private void updateLabels() {
+    private void scanSources() {
 
-        if (mSelectedSources.isEmpty()) {
+        List<File> paths = new ArrayList<>();
 
-            showSelectSourcesPanel();
-
-        } else {
-
-            int imageCount = 0;
-            int videoCount = 0;
-
-            for (Sources source : mSelectedSources) {
+        for (Sources source : mSelectedSources) {
+            paths.addAll(source.getActivePaths());
+        }
 
-                List<File> paths = source.getActivePaths();
+        mScanner.scan(paths, new MediaScanner.Listener() {
 
-                for (File path : paths) {
-                    imageCount += Files.getImages(path).size();
-                    videoCount += Files.getVideos(path).size();
-                }
+            @Override
+            public void onCounts(int imageCount, int videoCount) {
+                updateLabels(imageCount, videoCount);
             }
 
-            String photosCountText = getResources().getQuantityString(R.plurals.plural_photos_count, imageCount, imageCount);
-            String videosCountText = getResources().getQuantityString(R.plurals.plural_videos_count, videoCount, videoCount);
-
-            mTextSubtitle.setText(getString(R.string.label_files_count, photosCountText, videosCountText));
-
-            showMainPanel();
-        }
+            @Override
+            public void onImages(RecentImages images) {
+                loadPhotos(images);
+            }
+        });
     }
 
 
     /**
-     * Inicia la carga de fotos ubicadas en las carpetas seleccionadas
+     * Muestra el contador de archivos de los orígenes
      */
-    private void loadPhotos() {
-
-        if (mSelectedSources.isEmpty()) {
-            return;
-        }
-
-        List<File> recentImages = new ArrayList<>();
-
-        for (Sources source : mSelectedSources) {
+    private void updateLabels(int imageCount, int videoCount) {
 
-            List<File> paths = source.getActivePaths();
-
-            for (File path : paths) {
-                recentImages.addAll(getRecentImages(path));
-            }
-        }
+        String photosCountText = getResources().getQuantityString(R.plurals.plural_photos_count, imageCount, imageCount);
+        String videosCountText = getResources().getQuantityString(R.plurals.plural_videos_count, videoCount, videoCount);
 
-        mGridPhotos.setVisibility(View.VISIBLE);
-        mGridPhotos.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
-        mGridPhotos.setAdapter(new ImageAdapter(getActivity().getApplicationContext(), recentImages));
+        mTextSubtitle.setText(getString(R.string.label_files_count, photosCountText, videosCountText));
     }
 
 
     /**
-     * Obtiene las imagenes de la carpeta indicada ordenadas por fecha de modificación
+     * Muestra las fotos ubicadas en las carpetas seleccionadas
      */
-    private List<File> getRecentImages(File path) {
-
-        List<File> images = new ArrayList<>(Files.getImages(path));
+    private void loadPhotos(RecentImages images) {
 
-        Collections.sort(images, Files.lastModifiedComparator);
-
-        return images;
+        mGridPhotos.setVisibility(View.VISIBLE);
+        mGridPhotos.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
+        mGridPhotos.setAdapter(new ImageAdapter(getActivity().getApplicationContext(), images));
     }
 }
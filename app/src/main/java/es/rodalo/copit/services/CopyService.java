@@ -18,72 +18,420 @@ package es.rodalo.copit.services;
 
 
 import android.app.ActivityManager;
-import android.app.IntentService;
+import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.support.v4.content.LocalBroadcastManager;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import es.rodalo.copit.BuildConfig;
 import es.rodalo.copit.utils.ApplicationContext;
+import es.rodalo.copit.utils.BackupManifest;
+import es.rodalo.copit.utils.CancellationToken;
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.CopyFailures;
+import es.rodalo.copit.utils.CopyJob;
+import es.rodalo.copit.utils.CopyPlan;
+import es.rodalo.copit.utils.CopyProgress;
+import es.rodalo.copit.utils.Device;
 import es.rodalo.copit.utils.Error;
+import es.rodalo.copit.utils.FileEntry;
 import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.HardLinker;
+import es.rodalo.copit.utils.IoThrottle;
+import es.rodalo.copit.utils.JobQueue;
+import es.rodalo.copit.utils.MediaIndex;
+import es.rodalo.copit.utils.PosixFileStat;
 import es.rodalo.copit.utils.Preferences;
+import es.rodalo.copit.utils.ProgressPublisher;
+import es.rodalo.copit.utils.RunHistory;
+import es.rodalo.copit.utils.RunMetrics;
+import es.rodalo.copit.utils.RunSummary;
+import es.rodalo.copit.utils.SnapshotStore;
 import es.rodalo.copit.utils.Sources;
+import es.rodalo.copit.utils.TreeWalker;
+import es.rodalo.copit.utils.Volumes;
 
 
 /**
- * Servicio encargado de realizar la copia de archivos
+ * Servicio encargado de realizar la copia de archivos.
+ *
+ * Cada petición lleva su copia ({@link CopyJob}) y se añade a una cola que las hace de una en una.
+ * Si se pide una copia igual a la que está en marcha o esperando, se une a ella en vez de
+ * repetirla (y volver a recorrer todas las carpetas para no encontrar nada que copiar).
  */
-public class CopyService extends IntentService implements Files.CopyProgressCallback {
+public class CopyService extends Service implements JobQueue.Runner, Files.CopyProgressCallback {
 
     public static final String ACTION_START = "es.rodalo.copit.intent.copy.start";
     public static final String ACTION_PROGRESS = "es.rodalo.copit.intent.copy.progress";
     public static final String ACTION_END = "es.rodalo.copit.intent.copy.end";
+    public static final String ACTION_CANCEL = "es.rodalo.copit.intent.copy.cancel";
+
+    public static final String EXTRA_JOB = "job";
 
     public static final String RESPONSE_PROGRESS = "progress";
     public static final String RESPONSE_TOTAL = "total";
+    public static final String RESPONSE_BYTES = "bytes";
+    public static final String RESPONSE_TOTAL_BYTES = "total_bytes";
+    public static final String RESPONSE_REMAINING = "remaining";
     public static final String RESPONSE_RESULT = "result";
     public static final String RESPONSE_ERROR = "exception";
+    public static final String RESPONSE_SUMMARY = "summary";
+    public static final String RESPONSE_FAILED = "failed";
+
+    /**
+     * Veces que se reintenta un archivo que falla por un error pasajero
+     */
+    private static final int COPY_RETRIES = 2;
+
+    /**
+     * Resultado de la copia enviado en {@link #RESPONSE_RESULT}
+     */
+    public enum Result {
+        SUCCESS,
+        PARTIAL,
+        ERROR,
+        CANCELLED
+    }
+
+    private ExecutorService mExecutor;
+    private JobQueue mQueue;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Última petición recibida. Se lee y se cambia con la cola bloqueada.
+     */
+    private int mLastStartId;
+
+
+    /**
+     * Pide una copia con las carpetas y el destino elegidos en la configuración
+     */
+    public static void start(Context context) {
+        start(context, createJob(CopyJob.Mode.BACKUP));
+    }
+
+
+    /**
+     * Pide la copia indicada
+     */
+    public static void start(Context context, CopyJob job) {
+        Intent intent = new Intent(context, CopyService.class);
+        intent.putExtra(EXTRA_JOB, job);
+        context.startService(intent);
+    }
 
 
-    public CopyService() {
-        super("CopyService");
+    /**
+     * Pide que se cancele la copia en marcha
+     */
+    public static void cancel(Context context) {
+        Intent intent = new Intent(context, CopyService.class);
+        intent.setAction(ACTION_CANCEL);
+        context.startService(intent);
     }
 
 
     /**
-     * Inicia el proceso de copia de archivos
+     * Crea una copia con las carpetas y el destino elegidos en la configuración
      */
+    public static CopyJob createJob(CopyJob.Mode mode) {
+
+        List<File> sources = new ArrayList<>();
+
+        for (Sources selectedSource : Preferences.getSelectedSources()) {
+            sources.addAll(selectedSource.getActivePaths());
+        }
+
+        return new CopyJob(sources, new File(Preferences.getDestFolder()), Preferences.getBackupFolderName(), mode);
+    }
+
+
     @Override
-    protected void onHandleIntent(Intent intent) {
+    public void onCreate() {
+        super.onCreate();
+
+        mExecutor = createExecutor();
+        mQueue = new JobQueue(mExecutor, this);
+    }
+
+
+    /**
+     * Crea el ejecutor en el que se hacen las copias
+     */
+    protected ExecutorService createExecutor() {
+        return Executors.newSingleThreadExecutor();
+    }
+
+
+    @Override
+    public void onDestroy() {
+
+        mQueue.cancelAll();
+        mExecutor.shutdown();
+
+        super.onDestroy();
+    }
+
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+
+    /**
+     * La cancelación se atiende en cuanto llega; las copias se añaden a la cola
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+
+        synchronized (mQueue) {
+
+            mLastStartId = startId;
+
+            if (isCancelIntent(intent)) {
+
+                mQueue.cancelAll();
+
+            } else {
+
+                CopyJob job = (intent != null) ? (CopyJob) intent.getSerializableExtra(EXTRA_JOB) : null;
+
+                mQueue.submit(job != null ? job : createJob(CopyJob.Mode.BACKUP));
+            }
+
+            if (mQueue.isIdle()) {
+                stopSelf(startId);
+            }
+        }
+
+        return START_NOT_STICKY;
+    }
+
+
+    /**
+     * Se detiene cuando no quedan copias, salvo que haya llegado otra petición mientras tanto.
+     * La cola está bloqueada, así que la última petición es la que había cuando se quedó vacía;
+     * si después llega otra, stopSelf no detiene el servicio.
+     */
+    @Override
+    public void onIdle() {
+
+        final int startId = mLastStartId;
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopSelf(startId);
+            }
+        });
+    }
+
+
+    /**
+     * Realiza la copia de archivos indicada
+     */
+    @Override
+    public void run(CopyJob job, CancellationToken cancellation) {
 
         onStart();
 
+        RunMetrics metrics = new RunMetrics();
+        CopyFailures failures = new CopyFailures();
+        File dest = job.getDestination();
+
         try {
 
-            List<Sources> selectedSources = Preferences.getSelectedSources();
-            File dest = new File(Preferences.getDestFolder());
-            String backupFolderName = Preferences.getBackupFolderName();
+            File backupRoot = createBackupRoot(dest, job.getBackupFolderName());
+
+            long start = System.nanoTime();
+            BackupManifest manifest = BackupManifest.load(backupRoot);
+            metrics.addMetadataTime(System.nanoTime() - start);
+
+            CopyEngine engine = new CopyEngine()
+                    .workers(Preferences.getCopyWorkers())
+                    .manifest(manifest)
+                    .deduplicate(Preferences.isDeduplicateEnabled())
+                    .removableDestination(Device.isRemovable(dest))
+                    .newestFirst(Preferences.isNewestFirstEnabled())
+                    .volumes(Volumes.load())
+                    .cancellation(cancellation)
+                    .metrics(metrics)
+                    .retries(COPY_RETRIES)
+                    .deltaSync(Preferences.isDeltaSyncEnabled())
+                    .walker(new TreeWalker(PosixFileStat.create()));
+
+            if (Preferences.isContinueOnErrorEnabled()) {
+                engine.failures(failures);
+            }
+
+            if (Preferences.getThrottleRate() != IoThrottle.UNLIMITED || Preferences.isThrottleAdaptiveEnabled()) {
+                engine.throttle(new IoThrottle(Preferences.getThrottleRate(), Preferences.getThrottleBurst())
+                        .adaptive(Preferences.isThrottleAdaptiveEnabled()));
+            }
+
+            SnapshotStore snapshots = Preferences.isSnapshotsEnabled() ? new SnapshotStore(backupRoot) : null;
+            File target = backupRoot;
+
+            if (snapshots != null) {
+
+                File previous = snapshots.getLatestComplete();
+
+                target = snapshots.begin(new Date());
+
+                // La primera copia fechada parte de lo que ya estaba copiado sin fechas
 
-            for (Sources selectedSource : selectedSources) {
+                engine.snapshot(target, previous != null ? previous : backupRoot)
+                        .linker(HardLinker.create());
+            }
+
+            // El plan se hace leyendo los orígenes del disco: el índice no ve los archivos modificados
+            // sin cambiar de nombre, así que sólo se usa para los contadores de las pantallas. Se
+            // actualiza antes de planificar para anotar luego como copiado sólo lo que ya existía.
+
+            MediaIndex index = null;
+            List<FileEntry> indexed = null;
+
+            if (job.getMode() == CopyJob.Mode.BACKUP) {
+                index = ApplicationContext.getMediaIndex();
+                index.refresh(job.getSources());
+                indexed = index.getFiles(job.getSources());
+            }
+
+            try {
 
-                for (File source : selectedSource.getActivePaths()) {
+                CopyPlan plan = (job.getMode() == CopyJob.Mode.RETRY_FAILED) ?
+                        CopyFailures.load(backupRoot).toPlan() :
+                        plan(engine, job, target);
 
-                    File backup = createBackupFolder(source, dest, backupFolderName);
+                engine.execute(plan, new ProgressPublisher(this));
 
-                    Files.copyFolder(source, backup, this);
-                }
+            } finally {
+
+                start = System.nanoTime();
+                manifest.save();
+                metrics.addMetadataTime(System.nanoTime() - start);
+            }
+
+            failures.save(backupRoot);
+
+            if (index != null) {
+                index.markBackedUp(indexed, getFailedFiles(failures));
+                saveIndex(index);
             }
 
-            onEnd();
+            if (snapshots != null && failures.isEmpty()) {
+
+                // Si faltan archivos la copia no se da por terminada, y la siguiente la continúa
+
+                snapshots.complete(target);
+
+                start = System.nanoTime();
+                snapshots.prune(manifest, Preferences.getSnapshotRetention());
+                metrics.addMetadataTime(System.nanoTime() - start);
+            }
+
+            if (failures.isEmpty()) {
+                onEnd(record(metrics, dest, true));
+            } else {
+                onPartialEnd(failures.size(), record(metrics, dest, false));
+            }
+
+        } catch (Error.CancelledException e) {
+
+            onCancelled(record(metrics, dest, false));
 
         } catch (Exception e) {
 
-            onError(e);
+            onError(e, record(metrics, dest, false));
+        }
+    }
+
+
+    /**
+     * Recorre los orígenes de la copia para saber qué archivos hay que copiar
+     */
+    private CopyPlan plan(CopyEngine engine, CopyJob job, File target) throws Exception {
+
+        Map<File, File> folders = new LinkedHashMap<>();
+
+        for (File source : job.getSources()) {
+            folders.put(source, createBackupFolder(source, target));
         }
+
+        CopyPlan plan = new CopyPlan();
+
+        engine.plan(folders, plan);
+
+        return plan;
+    }
+
+
+    private static boolean isCancelIntent(Intent intent) {
+        return intent != null && ACTION_CANCEL.equals(intent.getAction());
+    }
+
+
+    private static List<File> getFailedFiles(CopyFailures failures) {
+
+        List<File> files = new ArrayList<>();
+
+        for (CopyFailures.Failure failure : failures.getFailures()) {
+            files.add(failure.srcFile);
+        }
+
+        return files;
+    }
+
+
+    /**
+     * Guarda el índice de los orígenes con los archivos que ya están copiados
+     */
+    private static void saveIndex(MediaIndex index) {
+
+        try {
+
+            index.save();
+
+        } catch (IOException ignore) {
+
+            // Si no se puede guardar, la próxima vez se vuelven a leer las carpetas
+        }
+    }
+
+
+    /**
+     * Guarda el resumen de la ejecución en el historial
+     */
+    private RunSummary record(RunMetrics metrics, File dest, boolean success) {
+
+        RunSummary summary = metrics.summarize(success, Build.MANUFACTURER + " " + Build.MODEL, dest.getAbsolutePath());
+
+        try {
+
+            new RunHistory(getFilesDir()).add(summary);
+
+        } catch (IOException ignore) {
+
+            // El historial no es imprescindible, la copia ya ha terminado
+        }
+
+        return summary;
     }
 
 
@@ -96,13 +444,17 @@ public class CopyService extends IntentService implements Files.CopyProgressCall
 
 
     /**
-     * Notifica el progreso actual del proceso de copia
+     * Notifica el progreso actual del proceso de copia.
+     * Los avisos llegan ya agrupados por {@link ProgressPublisher}.
      */
     @Override
-    public void onProgress(int progress, int total) {
+    public void onProgress(CopyProgress progress) {
         Intent intent = new Intent(ACTION_PROGRESS);
-        intent.putExtra(RESPONSE_PROGRESS, progress);
-        intent.putExtra(RESPONSE_TOTAL, total);
+        intent.putExtra(RESPONSE_PROGRESS, progress.files);
+        intent.putExtra(RESPONSE_TOTAL, progress.totalFiles);
+        intent.putExtra(RESPONSE_BYTES, progress.bytes);
+        intent.putExtra(RESPONSE_TOTAL_BYTES, progress.totalBytes);
+        intent.putExtra(RESPONSE_REMAINING, progress.remainingMillis);
         publish(intent);
     }
 
@@ -110,9 +462,22 @@ public class CopyService extends IntentService implements Files.CopyProgressCall
     /**
      * Notifica el final del proceso de copia
      */
-    private void onEnd() {
+    private void onEnd(RunSummary summary) {
         Intent intent = new Intent(ACTION_END);
-        intent.putExtra(RESPONSE_RESULT, true);
+        intent.putExtra(RESPONSE_RESULT, Result.SUCCESS);
+        intent.putExtra(RESPONSE_SUMMARY, summary);
+        publish(intent);
+    }
+
+
+    /**
+     * Notifica el final del proceso de copia cuando algunos archivos no se han podido copiar
+     */
+    private void onPartialEnd(int failed, RunSummary summary) {
+        Intent intent = new Intent(ACTION_END);
+        intent.putExtra(RESPONSE_RESULT, Result.PARTIAL);
+        intent.putExtra(RESPONSE_FAILED, failed);
+        intent.putExtra(RESPONSE_SUMMARY, summary);
         publish(intent);
     }
 
@@ -120,10 +485,22 @@ public class CopyService extends IntentService implements Files.CopyProgressCall
     /**
      * Notifica el final del proceso de copia con error
      */
-    private void onError(Exception exception) {
+    private void onError(Exception exception, RunSummary summary) {
         Intent intent = new Intent(ACTION_END);
-        intent.putExtra(RESPONSE_RESULT, false);
+        intent.putExtra(RESPONSE_RESULT, Result.ERROR);
         intent.putExtra(RESPONSE_ERROR, exception);
+        intent.putExtra(RESPONSE_SUMMARY, summary);
+        publish(intent);
+    }
+
+
+    /**
+     * Notifica el final del proceso de copia porque lo ha cancelado el usuario
+     */
+    private void onCancelled(RunSummary summary) {
+        Intent intent = new Intent(ACTION_END);
+        intent.putExtra(RESPONSE_RESULT, Result.CANCELLED);
+        intent.putExtra(RESPONSE_SUMMARY, summary);
         publish(intent);
     }
 
@@ -137,9 +514,9 @@ public class CopyService extends IntentService implements Files.CopyProgressCall
 
 
     /**
-     * Crea la carpeta donde se guardarán los archivos copiados
+     * Crea la carpeta principal del backup, donde se guarda también el registro de archivos copiados
      */
-    private File createBackupFolder(File source, File dest, String backupFolderName) throws Error.CantCreateBackupFolderException {
+    private File createBackupRoot(File dest, String backupFolderName) throws Error.CantCreateBackupFolderException {
 
         String appId = BuildConfig.APPLICATION_ID;
 
@@ -147,17 +524,31 @@ public class CopyService extends IntentService implements Files.CopyProgressCall
 
         String folderName = appName + "_backup" +
                 File.separatorChar +
-                backupFolderName +
-                File.separatorChar +
-                source.getName();
+                backupFolderName;
+
+        return createFolder(new File(dest, folderName));
+    }
+
+
+    /**
+     * Crea la carpeta donde se guardarán los archivos copiados
+     */
+    private File createBackupFolder(File source, File target) throws Error.CantCreateBackupFolderException {
 
-        File backupFolder = new File(dest, folderName);
+        return createFolder(new File(target, source.getName()));
+    }
+
+
+    /**
+     * Crea la carpeta indicada si todavía no existe
+     */
+    private File createFolder(File folder) throws Error.CantCreateBackupFolderException {
 
-        if ( ! backupFolder.exists() && ! backupFolder.mkdirs()) {
+        if ( ! folder.exists() && ! folder.mkdirs()) {
             throw new Error.CantCreateBackupFolderException();
         }
 
-        return backupFolder;
+        return folder;
     }
 
 
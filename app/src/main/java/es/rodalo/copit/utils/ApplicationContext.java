@@ -19,12 +19,15 @@ package es.rodalo.copit.utils;
 import android.app.Application;
 import android.content.Context;
 
+import java.io.File;
+
 /**
  * ApplicationContext
  */
 public class ApplicationContext extends Application {
 
     private static Context context;
+    private static MediaIndex mediaIndex;
 
     @Override
     public void onCreate() {
@@ -32,9 +35,25 @@ public class ApplicationContext extends Application {
         super.onCreate();
 
         ApplicationContext.context = getApplicationContext();
+
+        Files.setAllocator(PosixFileAllocator.create());
     }
 
     public static Context getAppContext() {
         return ApplicationContext.context;
     }
+
+
+    /**
+     * Obtiene el índice de los archivos de los orígenes, compartido por las pantallas y el servicio de copia
+     */
+    public static synchronized MediaIndex getMediaIndex() {
+
+        if (mediaIndex == null) {
+            mediaIndex = MediaIndex.load(new File(context.getFilesDir(), MediaIndex.FILE_NAME),
+                    new TreeWalker(PosixFileStat.create()));
+        }
+
+        return mediaIndex;
+    }
 }
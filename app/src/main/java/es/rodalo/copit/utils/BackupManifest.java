@@ -0,0 +1,551 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package es.rodalo.copit.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro de los archivos guardados en una carpeta de backup.
+ * Permite saber qué archivos están ya copiados sin consultar el destino y,
+ * si se eliminan duplicados, en qué archivo está guardado cada contenido.
+ */
+public class BackupManifest {
+
+    public static final String FILE_NAME = ".copit_manifest";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String HEADER = "copit-manifest\t2";
+    private static final String HEADER_V1 = "copit-manifest\t1";
+    private static final String FOOTER = "end\t";
+    private static final String SEPARATOR = "\t";
+    private static final String NONE = "-";
+    private static final String ENCODING = "UTF-8";
+
+    private final File root;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private Map<Long, List<String>> storedByLength;
+
+
+    private BackupManifest(File root) {
+        this.root = root;
+    }
+
+
+    /**
+     * Carga el registro de la carpeta indicada. Si no existe o está dañado
+     * se vuelve a generar a partir de los archivos que haya en la carpeta.
+     */
+    public static BackupManifest load(File root) {
+
+        BackupManifest manifest = new BackupManifest(root);
+
+        try {
+
+            manifest.read();
+
+        } catch (IOException e) {
+
+            manifest.entries.clear();
+            manifest.rebuild();
+        }
+
+        return manifest;
+    }
+
+
+    /**
+     * Comprueba si el archivo de destino ya está guardado con el tamaño y la fecha indicados
+     */
+    public boolean isUpToDate(File destFile, long length, long lastModified) {
+
+        Entry entry = entries.get(getKey(destFile));
+
+        return entry != null && entry.length == length && entry.lastModified == lastModified;
+    }
+
+
+    /**
+     * Registra un archivo recién copiado
+     */
+    public void put(File destFile, long length, long lastModified, String hash) {
+
+        String key = getKey(destFile);
+
+        entries.put(key, new Entry(length, lastModified, hash, null));
+
+        synchronized (this) {
+            if (storedByLength != null) {
+                addToIndex(key, length);
+            }
+        }
+    }
+
+
+    /**
+     * Registra un archivo que no se ha copiado porque su contenido ya estaba guardado en otro archivo
+     */
+    public void putReference(File destFile, long length, long lastModified, String hash, File stored) {
+        entries.put(getKey(destFile), new Entry(length, lastModified, hash, getKey(stored)));
+    }
+
+
+    /**
+     * Obtiene el archivo en el que está guardado realmente el contenido del indicado:
+     * él mismo, o aquel al que hace referencia. Devuelve null si no está registrado.
+     */
+    public File getStoredFile(File destFile) {
+
+        Entry entry = entries.get(getKey(destFile));
+
+        if (entry == null) {
+            return null;
+        }
+
+        return (entry.target != null) ? new File(root, entry.target) : destFile;
+    }
+
+
+    /**
+     * Obtiene la huella registrada del archivo indicado, o null si no se conoce
+     */
+    public String getHash(File destFile) {
+
+        Entry entry = entries.get(getKey(destFile));
+
+        return (entry != null) ? entry.hash : null;
+    }
+
+
+    /**
+     * Quita del registro los archivos de una carpeta que se va a borrar. Los que siguen
+     * guardando el contenido de archivos de otras carpetas se mueven antes al primero de ellos,
+     * que deja de ser una referencia, sin copiar sus datos.
+     */
+    public synchronized void removeFolder(File folder) throws IOException {
+
+        String prefix = getKey(folder) + File.separator;
+
+        Map<String, List<String>> referencesByTarget = new HashMap<>();
+
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+
+            String target = item.getValue().target;
+
+            if (target != null && target.startsWith(prefix) && !item.getKey().startsWith(prefix)) {
+
+                List<String> references = referencesByTarget.get(target);
+
+                if (references == null) {
+                    references = new ArrayList<>();
+                    referencesByTarget.put(target, references);
+                }
+
+                references.add(item.getKey());
+            }
+        }
+
+        for (String key : new ArrayList<>(entries.keySet())) {
+
+            if (!key.startsWith(prefix)) {
+                continue;
+            }
+
+            Entry entry = entries.remove(key);
+            List<String> references = referencesByTarget.get(key);
+
+            if (entry.target != null || references == null) {
+                continue;
+            }
+
+            moveToReference(key, entry, references);
+        }
+
+        storedByLength = null;
+    }
+
+
+    /**
+     * Prepara la sustitución de un archivo guardado por otro contenido. Si hay archivos que
+     * hacen referencia a él, su contenido actual se mueve antes al primero de ellos para no perderlo.
+     */
+    public synchronized void detachReferences(File destFile) throws IOException {
+
+        String key = getKey(destFile);
+        Entry entry = entries.get(key);
+
+        if (entry == null || entry.target != null) {
+            return;
+        }
+
+        List<String> references = new ArrayList<>();
+
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            if (key.equals(item.getValue().target)) {
+                references.add(item.getKey());
+            }
+        }
+
+        if (references.isEmpty()) {
+            return;
+        }
+
+        entries.remove(key);
+
+        moveToReference(key, entry, references);
+
+        storedByLength = null;
+    }
+
+
+    /**
+     * Mueve un archivo guardado al primero de los que hacen referencia a él, que deja
+     * de ser una referencia, y hace que el resto apunten a su nueva ubicación
+     */
+    private void moveToReference(String key, Entry entry, List<String> references) throws IOException {
+
+        // Al que tenga la ruta menor, que en las copias fechadas es el de la copia más antigua
+
+        Collections.sort(references);
+
+        String newKey = references.get(0);
+        Entry reference = entries.get(newKey);
+
+        File to = new File(root, newKey);
+
+        Files.createParentFolder(to);
+
+        if (!new File(root, key).renameTo(to)) {
+            throw new IOException("Can't move " + key + " to " + newKey);
+        }
+
+        entries.put(newKey, new Entry(reference.length, reference.lastModified, entry.hash, null));
+
+        for (String other : references.subList(1, references.size())) {
+            Entry otherEntry = entries.get(other);
+            entries.put(other, new Entry(otherEntry.length, otherEntry.lastModified, otherEntry.hash, newKey));
+        }
+    }
+
+
+    /**
+     * Comprueba si hay algún archivo guardado con el tamaño indicado.
+     * Si no lo hay no merece la pena calcular la huella para buscar duplicados.
+     */
+    public synchronized boolean containsLength(long length) {
+        return getIndex().containsKey(length);
+    }
+
+
+    /**
+     * Busca un archivo ya guardado con el mismo contenido. La huella de los archivos
+     * registrados sin ella se calcula ahora y se guarda para las siguientes veces.
+     */
+    public File findByContent(long length, String hash) throws IOException {
+
+        List<String> candidates;
+
+        synchronized (this) {
+
+            List<String> keys = getIndex().get(length);
+
+            if (keys == null) {
+                return null;
+            }
+
+            candidates = new ArrayList<>(keys);
+        }
+
+        for (String key : candidates) {
+
+            Entry entry = entries.get(key);
+            File file = new File(root, key);
+
+            if (entry == null) {
+                continue;
+            }
+
+            String storedHash = entry.hash;
+
+            if (storedHash == null) {
+
+                if (!file.isFile()) {
+                    continue;
+                }
+
+                storedHash = Files.hash(file);
+
+                entries.put(key, new Entry(entry.length, entry.lastModified, storedHash, null));
+            }
+
+            if (storedHash.equals(hash)) {
+                return file;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Número de archivos registrados
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Guarda el registro. Primero se escribe en un archivo temporal que
+     * luego sustituye al anterior para no dejarlo nunca a medias.
+     */
+    public void save() throws IOException {
+
+        File file = new File(root, FILE_NAME);
+        File temp = new File(root, FILE_NAME + TEMP_SUFFIX);
+
+        FileOutputStream output = null;
+
+        try {
+
+            output = new FileOutputStream(temp);
+
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, ENCODING));
+
+            writer.write(HEADER);
+            writer.newLine();
+
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+
+                Entry entry = item.getValue();
+
+                writer.write(entry.length + SEPARATOR +
+                        entry.lastModified + SEPARATOR +
+                        (entry.hash != null ? entry.hash : NONE) + SEPARATOR +
+                        (entry.target != null ? entry.target : NONE) + SEPARATOR +
+                        item.getKey());
+                writer.newLine();
+            }
+
+            writer.write(FOOTER + entries.size());
+            writer.newLine();
+            writer.flush();
+
+            output.getFD().sync();
+            output.close();
+
+        } finally {
+
+            IOUtils.closeQuietly(output);
+        }
+
+        if (!temp.renameTo(file)) {
+
+            // Algunos sistemas de archivos (FAT32) no permiten sobrescribir al renombrar
+
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Can't replace " + file);
+            }
+        }
+    }
+
+
+    /**
+     * Lee el registro guardado en disco
+     */
+    private void read() throws IOException {
+
+        File file = new File(root, FILE_NAME);
+
+        if (!file.isFile()) {
+            throw new IOException("Missing " + file);
+        }
+
+        BufferedReader reader = null;
+
+        try {
+
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+
+            String header = reader.readLine();
+
+            // La versión 1 no guardaba el archivo al que apuntan los duplicados
+
+            int fieldCount;
+
+            if (HEADER.equals(header)) {
+                fieldCount = 5;
+            } else if (HEADER_V1.equals(header)) {
+                fieldCount = 4;
+            } else {
+                throw new IOException("Unknown format " + file);
+            }
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.startsWith(FOOTER)) {
+
+                    if (Integer.parseInt(line.substring(FOOTER.length())) != entries.size()) {
+                        throw new IOException("Truncated " + file);
+                    }
+
+                    return;
+                }
+
+                String[] fields = line.split(SEPARATOR, fieldCount);
+
+                if (fields.length != fieldCount) {
+                    throw new IOException("Corrupt " + file);
+                }
+
+                String hash = NONE.equals(fields[2]) ? null : fields[2];
+                String target = (fieldCount == 5 && !NONE.equals(fields[3])) ? fields[3] : null;
+
+                entries.put(fields[fieldCount - 1], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), hash, target));
+            }
+
+            throw new IOException("Truncated " + file);
+
+        } catch (NumberFormatException e) {
+
+            throw new IOException("Corrupt " + file);
+
+        } finally {
+
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+
+    /**
+     * Genera el registro recorriendo los archivos que hay realmente en la carpeta
+     */
+    private void rebuild() {
+
+        if (!root.isDirectory()) {
+            return;
+        }
+
+        for (File file : FileUtils.listFiles(root, null, true)) {
+
+            String name = file.getName();
+
+            boolean ignored = name.startsWith(FILE_NAME) ||
+                    name.startsWith(CopyFailures.FILE_NAME) ||
+                    name.equals(SnapshotStore.COMPLETE_FILE) ||
+                    name.endsWith(ResumableCopy.PARTIAL_SUFFIX) ||
+                    name.endsWith(ResumableCopy.CHECKPOINT_SUFFIX) ||
+                    name.endsWith(Files.TEMP_SUFFIX) ||
+                    name.endsWith(DeltaCopy.JOURNAL_SUFFIX);
+
+            if (!ignored) {
+                entries.put(getKey(file), new Entry(file.length(), file.lastModified(), null, null));
+            }
+        }
+    }
+
+
+    /**
+     * Obtiene el índice de archivos guardados según su tamaño, creándolo la primera vez
+     */
+    private Map<Long, List<String>> getIndex() {
+
+        if (storedByLength == null) {
+
+            storedByLength = new HashMap<>();
+
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                if (item.getValue().target == null) {
+                    addToIndex(item.getKey(), item.getValue().length);
+                }
+            }
+        }
+
+        return storedByLength;
+    }
+
+
+    /**
+     * Añade un archivo guardado al índice por tamaño
+     */
+    private void addToIndex(String key, long length) {
+
+        List<String> keys = storedByLength.get(length);
+
+        if (keys == null) {
+            keys = new ArrayList<>();
+            storedByLength.put(length, keys);
+        }
+
+        if (!keys.contains(key)) {
+            keys.add(key);
+        }
+    }
+
+
+    /**
+     * Obtiene la ruta del archivo relativa a la carpeta del backup
+     */
+    private String getKey(File file) {
+
+        String rootPath = root.getAbsolutePath();
+        String path = file.getAbsolutePath();
+
+        if (path.startsWith(rootPath + File.separator)) {
+            return path.substring(rootPath.length() + 1);
+        }
+
+        return path;
+    }
+
+
+    /**
+     * Datos registrados de cada archivo
+     */
+    public static class Entry {
+
+        public final long length;
+        public final long lastModified;
+        public final String hash;
+        public final String target;
+
+        Entry(long length, long lastModified, String hash, String target) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.target = target;
+        }
+    }
+}
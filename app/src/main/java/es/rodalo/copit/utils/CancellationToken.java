@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+/**
+ * Permite cancelar una copia en marcha desde otro hilo. La copia lo comprueba entre
+ * archivos y entre bloques de un mismo archivo, así que termina como mucho tras un bloque.
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled;
+
+
+    /**
+     * Pide que se cancele la copia
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+
+    /**
+     * Indica si se ha pedido cancelar la copia
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    /**
+     * Lanza una excepción si se ha pedido cancelar la copia
+     */
+    public void throwIfCancelled() throws Error.CancelledException {
+
+        if (cancelled) {
+            throw new Error.CancelledException();
+        }
+    }
+}
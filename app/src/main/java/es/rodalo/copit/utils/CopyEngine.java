@@ -0,0 +1,944 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import es.rodalo.copit.utils.copy.CopyStrategies;
+import es.rodalo.copit.utils.copy.CopyStrategy;
+
+/**
+ * Motor de copia que reparte los archivos entre varios hilos de trabajo.
+ *
+ * La copia se hace en dos fases: primero se recorren los orígenes para saber qué hay que
+ * copiar (ver {@link CopyPlan}) y después se copian los archivos pendientes.
+ */
+public class CopyEngine {
+
+    /**
+     * Número de hilos con el que se copia un archivo detrás de otro, como siempre
+     */
+    public static final int SEQUENTIAL = 1;
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+
+    /**
+     * Espera antes del primer reintento de un archivo; se dobla en cada reintento
+     */
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private static final long RETRY_WAIT_SLICE_MILLIS = 100;
+
+    /**
+     * Espacio que se deja libre en el destino para el registro de archivos copiados y las carpetas
+     */
+    private static final long FREE_SPACE_MARGIN = 1024 * 1024;
+
+    private int workers = SEQUENTIAL;
+    private BackupManifest manifest;
+    private boolean deduplicate;
+    private boolean removableDestination;
+    private boolean newestFirst;
+    private CopyStrategy strategy;
+    private RunMetrics metrics = new RunMetrics();
+    private Volumes volumes;
+    private CancellationToken cancellation = new CancellationToken();
+    private IoThrottle throttle;
+    private CopyFailures failures;
+    private int retries;
+    private FileLinker linker;
+    private boolean deltaSync;
+    private File snapshotDir;
+    private File previousDir;
+    private TreeWalker walker = new TreeWalker();
+
+    private final Set<String> unlinkableVolumes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+
+    /**
+     * Establece el número máximo de archivos que se copian a la vez
+     */
+    public CopyEngine workers(int workers) {
+        this.workers = Math.max(SEQUENTIAL, workers);
+        return this;
+    }
+
+
+    /**
+     * Establece el registro usado para saber qué archivos están ya copiados
+     * sin tener que consultarlos en el destino
+     */
+    public CopyEngine manifest(BackupManifest manifest) {
+        this.manifest = manifest;
+        return this;
+    }
+
+
+    /**
+     * Indica si se deben guardar una única vez los archivos con el mismo contenido.
+     * Sólo tiene efecto si se usa un registro de archivos copiados.
+     */
+    public CopyEngine deduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+        return this;
+    }
+
+
+    /**
+     * Indica si el destino es una memoria extraíble (USB, SD), lo que influye
+     * en la estrategia de copia elegida para cada archivo
+     */
+    public CopyEngine removableDestination(boolean removableDestination) {
+        this.removableDestination = removableDestination;
+        return this;
+    }
+
+
+    /**
+     * Indica si se deben copiar primero los archivos más recientes de todos los orígenes,
+     * para que estén a salvo cuanto antes si la copia se interrumpe
+     */
+    public CopyEngine newestFirst(boolean newestFirst) {
+        this.newestFirst = newestFirst;
+        return this;
+    }
+
+
+    /**
+     * Fuerza la estrategia de copia usada para todos los archivos.
+     * Si no se indica se elige una para cada archivo según su tamaño y el destino.
+     */
+    public CopyEngine strategy(CopyStrategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+
+    /**
+     * Establece los volúmenes del sistema, para recorrer a la vez orígenes de volúmenes distintos
+     * y repartir las copias sin saturar ninguno. Si no se indican se trata todo como un único volumen.
+     */
+    public CopyEngine volumes(Volumes volumes) {
+        this.volumes = volumes;
+        return this;
+    }
+
+
+    /**
+     * Establece el testigo con el que se puede cancelar la copia desde otro hilo
+     */
+    public CopyEngine cancellation(CancellationToken cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+
+    /**
+     * Limita la velocidad total de la copia, sumando la de todos los hilos
+     */
+    public CopyEngine throttle(IoThrottle throttle) {
+        this.throttle = throttle;
+        return this;
+    }
+
+
+    /**
+     * Hace que un archivo que no se puede copiar no detenga la copia: se anota en la lista
+     * indicada y se sigue con el resto. Sin lista la copia se detiene en el primer error.
+     */
+    public CopyEngine failures(CopyFailures failures) {
+        this.failures = failures;
+        return this;
+    }
+
+
+    /**
+     * Establece cuántas veces se reintenta un archivo que falla por un error de lectura
+     * o escritura pasajero, esperando cada vez el doble
+     */
+    public CopyEngine retries(int retries) {
+        this.retries = Math.max(0, retries);
+        return this;
+    }
+
+
+    /**
+     * Establece cómo enlazar los archivos sin cambios de una copia fechada con los de la anterior.
+     * Nunca se enlaza con los archivos de origen: serían el mismo archivo y editar el original
+     * cambiaría también la copia. Si no se puede en un volumen se registran como referencias.
+     */
+    public CopyEngine linker(FileLinker linker) {
+        this.linker = linker;
+        return this;
+    }
+
+
+    /**
+     * Indica si las copias anteriores de archivos grandes que han cambiado se deben actualizar
+     * reescribiendo sólo los bloques distintos (ver {@link DeltaCopy}). No se usa si se eliminan
+     * duplicados o se hacen copias fechadas, porque la copia anterior puede ser la de otros archivos.
+     */
+    public CopyEngine deltaSync(boolean deltaSync) {
+        this.deltaSync = deltaSync;
+        return this;
+    }
+
+
+    /**
+     * Establece cómo se recorren las carpetas de origen (ver {@link PosixFileStat})
+     */
+    public CopyEngine walker(TreeWalker walker) {
+        this.walker = (walker != null) ? walker : new TreeWalker();
+        return this;
+    }
+
+
+    /**
+     * Hace la copia en la carpeta de una copia fechada, al estilo de rsync --link-dest: los archivos
+     * que no han cambiado desde la copia anterior no se copian, se enlazan o se registran como
+     * referencias a ella. Requiere un registro de archivos copiados.
+     *
+     * @param snapshotDir carpeta de la copia que se está haciendo
+     * @param previousDir carpeta de la copia anterior, con la misma estructura
+     */
+    public CopyEngine snapshot(File snapshotDir, File previousDir) {
+        this.snapshotDir = snapshotDir;
+        this.previousDir = previousDir;
+        return this;
+    }
+
+
+    /**
+     * Establece dónde se anotan los datos de la ejecución
+     */
+    public CopyEngine metrics(RunMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+
+    /**
+     * Copia los archivos del origen en el destino
+     */
+    public void copy(File srcDir, File destDir, Files.CopyProgressCallback callback) throws Exception {
+
+        CopyPlan plan = new CopyPlan();
+
+        plan(srcDir, destDir, plan);
+
+        execute(plan, callback);
+    }
+
+
+    /**
+     * Recorre el origen y añade al plan los archivos que hay que copiar en el destino
+     */
+    public void plan(File srcDir, File destDir, CopyPlan plan) throws Exception {
+
+        long start = System.nanoTime();
+
+        try {
+            scan(srcDir, destDir, plan);
+        } finally {
+            metrics.addScanTime(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Recorre varios orígenes, cada uno con su carpeta de destino, y añade al plan sus archivos
+     * en el mismo orden en que se indican. Los orígenes de volúmenes distintos se recorren a la vez,
+     * así que el tiempo de recorrido que se anota es el de toda la fase y no la suma de cada origen.
+     */
+    public void plan(final Map<File, File> folders, CopyPlan plan) throws Exception {
+
+        long start = System.nanoTime();
+
+        try {
+            scan(folders, plan);
+        } finally {
+            metrics.addScanTime(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Recorre un origen y añade al plan sus archivos, anotando cuántos se han encontrado
+     */
+    private void scan(File srcDir, File destDir, CopyPlan plan) throws Exception {
+
+        Files.validateCopy(srcDir, destDir);
+
+        int files = plan.getTotalFiles();
+        int upToDate = plan.getUpToDateFiles();
+        long pendingBytes = plan.getPendingBytes();
+
+        walk(srcDir.getName(), srcDir, destDir, plan);
+
+        plan.addDestination(destDir, plan.getPendingBytes() - pendingBytes);
+
+        metrics.addScan(srcDir.getName(), plan.getTotalFiles() - files, plan.getUpToDateFiles() - upToDate);
+    }
+
+
+    /**
+     * Recorre varios orígenes a la vez, uno por volumen, y añade sus archivos al plan en el orden indicado
+     */
+    private void scan(final Map<File, File> folders, CopyPlan plan) throws Exception {
+
+        Map<String, List<File>> sourcesByVolume = new LinkedHashMap<>();
+
+        for (File srcDir : folders.keySet()) {
+
+            String volume = getVolume(srcDir);
+
+            List<File> sources = sourcesByVolume.get(volume);
+
+            if (sources == null) {
+                sources = new ArrayList<>();
+                sourcesByVolume.put(volume, sources);
+            }
+
+            sources.add(srcDir);
+        }
+
+        final Map<File, CopyPlan> plans = new ConcurrentHashMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(sourcesByVolume.size());
+
+        try {
+
+            List<Future<Void>> futures = new ArrayList<>();
+
+            for (final List<File> sources : sourcesByVolume.values()) {
+
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+
+                        for (File srcDir : sources) {
+                            CopyPlan sourcePlan = new CopyPlan();
+                            scan(srcDir, folders.get(srcDir), sourcePlan);
+                            plans.put(srcDir, sourcePlan);
+                        }
+
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                waitFor(future);
+            }
+
+        } finally {
+
+            executor.shutdownNow();
+        }
+
+        for (File srcDir : folders.keySet()) {
+            plan.addAll(plans.get(srcDir));
+        }
+    }
+
+
+    /**
+     * Copia los archivos pendientes del plan
+     */
+    public void execute(CopyPlan plan, Files.CopyProgressCallback callback) throws Exception {
+
+        checkFreeSpace(plan);
+
+        carryOver(plan);
+
+        if (newestFirst) {
+            plan.sortNewestFirst();
+        }
+
+        ProgressTracker tracker = new ProgressTracker(plan);
+
+        long start = System.nanoTime();
+
+        try {
+
+            if (workers == SEQUENTIAL) {
+                executeSequential(plan, tracker, callback);
+            } else {
+                executeParallel(plan, tracker, callback);
+            }
+
+        } finally {
+
+            metrics.addCopyTime(System.nanoTime() - start);
+        }
+
+        report(tracker, callback);
+    }
+
+
+    /**
+     * Comprueba, antes de copiar nada, que lo pendiente cabe en cada volumen de destino.
+     * Es una estimación por exceso: no descuenta los archivos repetidos que no se llegarán a copiar.
+     */
+    public void checkFreeSpace(CopyPlan plan) throws Error.NotEnoughSpaceException {
+
+        Map<String, Long> requiredByVolume = new LinkedHashMap<>();
+        Map<String, File> folderByVolume = new LinkedHashMap<>();
+
+        for (Map.Entry<File, Long> entry : plan.getPendingBytesByDestination().entrySet()) {
+
+            String volume = getVolume(entry.getKey());
+
+            Long required = requiredByVolume.get(volume);
+            requiredByVolume.put(volume, (required != null ? required : 0) + entry.getValue());
+
+            if (!folderByVolume.containsKey(volume)) {
+                folderByVolume.put(volume, entry.getKey());
+            }
+        }
+
+        for (Map.Entry<String, Long> entry : requiredByVolume.entrySet()) {
+
+            if (entry.getValue() <= 0) {
+                continue;
+            }
+
+            long required = entry.getValue() + FREE_SPACE_MARGIN;
+            long available = getUsableSpace(folderByVolume.get(entry.getKey()));
+
+            if (required > available) {
+                throw new Error.NotEnoughSpaceException(required, available);
+            }
+        }
+    }
+
+
+    /**
+     * Pasa a la copia actual los archivos que no han cambiado desde la anterior, enlazándolos
+     * o, si no se puede, registrándolos como referencias al archivo en el que están guardados
+     */
+    private void carryOver(CopyPlan plan) throws IOException, Error.CancelledException {
+
+        long start = System.nanoTime();
+
+        try {
+
+            for (CopyPlan.Carried carried : plan.getCarried()) {
+
+                cancellation.throwIfCancelled();
+
+                CopyPlan.Item item = carried.item;
+
+                File stored = manifest.getStoredFile(carried.previous);
+                String hash = manifest.getHash(carried.previous);
+
+                if (link(stored, item.destFile)) {
+                    manifest.put(item.destFile, item.length, item.lastModified, hash);
+                } else {
+                    manifest.putReference(item.destFile, item.length, item.lastModified, hash, stored);
+                }
+            }
+
+        } finally {
+
+            metrics.addMetadataTime(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Recorre las carpetas en profundidad anotando cada archivo en el plan
+     */
+    private void walk(String source, File srcDir, File destDir, CopyPlan plan) throws Error.CancelledException {
+
+        cancellation.throwIfCancelled();
+
+        for (FileEntry entry : walker.list(srcDir)) {
+
+            File srcFile = entry.file;
+            File destFile = new File(destDir, entry.getName());
+
+            if (entry.directory) {
+                walk(source, srcFile, destFile, plan);
+                continue;
+            }
+
+            long length = entry.length;
+            long lastModified = entry.lastModified;
+
+            File previous = getPreviousFile(destFile);
+
+            if (isUpToDate(destFile, length, lastModified)) {
+                plan.addUpToDate(length);
+            } else if (previous != null && isUpToDate(previous, length, lastModified)) {
+                plan.addCarried(new CopyPlan.Item(source, srcFile, destFile, length, lastModified), previous);
+            } else {
+                plan.addPending(new CopyPlan.Item(source, srcFile, destFile, length, lastModified));
+            }
+        }
+    }
+
+
+    /**
+     * Obtiene el archivo que corresponde al indicado en la copia anterior, o null si no se hacen copias fechadas
+     */
+    private File getPreviousFile(File destFile) {
+
+        if (snapshotDir == null || previousDir == null || manifest == null) {
+            return null;
+        }
+
+        String snapshotPath = snapshotDir.getAbsolutePath() + File.separator;
+        String path = destFile.getAbsolutePath();
+
+        return path.startsWith(snapshotPath) ? new File(previousDir, path.substring(snapshotPath.length())) : null;
+    }
+
+
+    /**
+     * Comprueba si el archivo ya está copiado en el destino
+     */
+    private boolean isUpToDate(File destFile, long length, long lastModified) {
+
+        if (manifest != null) {
+            return manifest.isUpToDate(destFile, length, lastModified);
+        }
+
+        return !Files.isNotTheSameFile(length, lastModified, destFile);
+    }
+
+
+    /**
+     * Copia los archivos de uno en uno, en el orden del plan
+     */
+    private void executeSequential(CopyPlan plan, final ProgressTracker tracker, final Files.CopyProgressCallback callback) throws Exception {
+
+        for (CopyPlan.Item item : plan.getItems()) {
+
+            new CopyTask(item, tracker) {
+
+                @Override
+                void onChunkCopied() {
+                    report(tracker, callback);
+                }
+
+            }.call();
+
+            report(tracker, callback);
+        }
+    }
+
+
+    /**
+     * Copia los archivos usando un conjunto limitado de hilos, que van tomando los archivos
+     * según estén libres sus volúmenes (ver {@link VolumeScheduler}).
+     * El progreso se notifica siempre desde el hilo que inicia la copia.
+     */
+    private void executeParallel(CopyPlan plan, final ProgressTracker tracker, Files.CopyProgressCallback callback) throws Exception {
+
+        int threads = Math.min(workers, Math.max(plan.getPendingFiles(), 1));
+
+        final VolumeScheduler scheduler = new VolumeScheduler(plan.getItems(), volumes, workers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+
+            CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+
+            for (int i = 0; i < threads; i++) {
+
+                completion.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+
+                        VolumeScheduler.Assignment assignment;
+
+                        while ((assignment = scheduler.take()) != null) {
+
+                            try {
+                                new CopyTask(assignment.item, tracker).call();
+                            } finally {
+                                scheduler.release(assignment);
+                            }
+                        }
+
+                        return null;
+                    }
+                });
+            }
+
+            int done = 0;
+
+            while (done < threads) {
+
+                Future<Void> future = completion.poll(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (future != null) {
+                    waitFor(future);
+                    done += 1;
+                }
+
+                report(tracker, callback);
+            }
+
+        } finally {
+
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Copia un archivo del plan
+     */
+    private void copyItem(CopyPlan.Item item, Files.CopyListener listener) throws Exception {
+
+        // Si una actualización por bloques se quedó a medias se deshace antes de tocar el archivo
+
+        DeltaCopy.recover(item.destFile);
+
+        if (manifest != null) {
+
+            // Otros archivos pueden compartir el contenido que se va a sustituir
+
+            long start = System.nanoTime();
+            manifest.detachReferences(item.destFile);
+            metrics.addMetadataTime(System.nanoTime() - start);
+        }
+
+        if (manifest != null && deduplicate) {
+
+            copyIfNotStored(item, listener);
+
+        } else {
+
+            if (!copyDelta(item, listener)) {
+                Files.copyFile(item.srcFile, item.destFile, getStrategy(item), listener);
+            }
+
+            if (manifest != null) {
+                long start = System.nanoTime();
+                manifest.put(item.destFile, item.length, item.lastModified, null);
+                metrics.addMetadataTime(System.nanoTime() - start);
+            }
+        }
+    }
+
+
+    /**
+     * Copia el archivo sólo si su contenido no está ya guardado en otro archivo del backup
+     * (en otro origen, o en el mismo si se ha movido o renombrado)
+     */
+    private void copyIfNotStored(CopyPlan.Item item, Files.CopyListener listener) throws Exception {
+
+        File destFile = item.destFile;
+
+        long start = System.nanoTime();
+
+        try {
+
+            if (manifest.containsLength(item.length)) {
+
+                String hash = Files.hash(item.srcFile);
+
+                File stored = manifest.findByContent(item.length, hash);
+
+                if (stored != null && stored.equals(destFile)) {
+                    manifest.put(destFile, item.length, item.lastModified, hash);
+                    return;
+                }
+
+                if (stored != null) {
+                    manifest.putReference(destFile, item.length, item.lastModified, hash, stored);
+                    return;
+                }
+            }
+
+        } finally {
+
+            metrics.addMetadataTime(System.nanoTime() - start);
+        }
+
+        String hash = Files.copyFileAndHash(item.srcFile, destFile, getStrategy(item), listener);
+
+        manifest.put(destFile, item.length, item.lastModified, hash);
+    }
+
+
+    /**
+     * Actualiza por bloques la copia anterior del archivo, si la hay y merece la pena.
+     * Devuelve false si hay que copiarlo entero.
+     */
+    private boolean copyDelta(CopyPlan.Item item, Files.CopyListener listener) throws IOException {
+
+        if (!deltaSync || snapshotDir != null || !DeltaCopy.isCandidate(item.destFile, item.length)) {
+            return false;
+        }
+
+        return new DeltaCopy(item.srcFile, item.destFile).cancellation(cancellation).copy(listener);
+    }
+
+
+    /**
+     * Intenta crear el archivo de destino como enlace a otro archivo del backup, si están en el mismo volumen.
+     * Si falla no se vuelve a intentar con ese volumen.
+     */
+    private boolean link(File srcFile, File destFile) throws IOException {
+
+        if (linker == null) {
+            return false;
+        }
+
+        String srcVolume = getVolume(srcFile.getParentFile());
+
+        if (!srcVolume.equals(getVolume(destFile.getParentFile())) || unlinkableVolumes.contains(srcVolume)) {
+            return false;
+        }
+
+        if (Files.linkFile(srcFile, destFile, linker)) {
+            return true;
+        }
+
+        unlinkableVolumes.add(srcVolume);
+
+        return false;
+    }
+
+
+    private String getVolume(File folder) {
+        return (volumes != null) ? volumes.getVolume(folder) : "";
+    }
+
+
+    /**
+     * Obtiene la estrategia con la que se copiará el archivo indicado
+     */
+    private CopyStrategy getStrategy(CopyPlan.Item item) {
+
+        return (strategy != null) ? strategy : CopyStrategies.select(item.length, removableDestination);
+    }
+
+
+    /**
+     * Notifica el progreso actual
+     */
+    private static void report(ProgressTracker tracker, Files.CopyProgressCallback callback) {
+
+        if (callback != null) {
+            callback.onProgress(tracker.snapshot());
+        }
+    }
+
+
+    /**
+     * Espera a que termine una copia y relanza su error, si lo hubo
+     */
+    private static void waitFor(Future<Void> future) throws Exception {
+
+        try {
+
+            future.get();
+
+        } catch (ExecutionException e) {
+
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+
+            throw e;
+        }
+    }
+
+
+    /**
+     * Indica si merece la pena reintentar un archivo tras el error indicado. Si el archivo
+     * no existe o no se puede abrir, volver a intentarlo no va a cambiar nada.
+     */
+    private static boolean isTransient(IOException e) {
+
+        return !(e instanceof FileNotFoundException) && !(e instanceof InterruptedIOException);
+    }
+
+
+    /**
+     * Espera antes de reintentar un archivo, atendiendo la cancelación mientras tanto
+     */
+    private void waitBeforeRetry(int attempt) throws Error.CancelledException, InterruptedException {
+
+        long remaining = RETRY_DELAY_MILLIS << Math.min(attempt, 10);
+
+        while (remaining > 0) {
+
+            cancellation.throwIfCancelled();
+
+            long slice = Math.min(remaining, RETRY_WAIT_SLICE_MILLIS);
+
+            Thread.sleep(slice);
+
+            remaining -= slice;
+        }
+
+        cancellation.throwIfCancelled();
+    }
+
+
+    /**
+     * Obtiene el espacio libre del volumen en el que está la carpeta, aunque todavía no exista
+     */
+    private static long getUsableSpace(File folder) {
+
+        File existing = folder.getAbsoluteFile();
+
+        while (existing != null && !existing.exists()) {
+            existing = existing.getParentFile();
+        }
+
+        return (existing != null) ? existing.getUsableSpace() : 0;
+    }
+
+
+    /**
+     * Copia de un único archivo, que va sumando al progreso los bytes copiados
+     */
+    private class CopyTask implements Callable<Void>, Files.CopyListener {
+
+        private final CopyPlan.Item item;
+        private final ProgressTracker tracker;
+
+        private long copied = 0;
+        private long counted = 0;
+        private long chunkStart;
+
+        CopyTask(CopyPlan.Item item, ProgressTracker tracker) {
+            this.item = item;
+            this.tracker = tracker;
+        }
+
+        @Override
+        public void onBytesCopied(long count) throws IOException {
+
+            copied += count;
+
+            // Al reintentar sólo cuenta lo que pasa de donde llegó el intento anterior, para que el progreso
+            // no retroceda, y nunca más que el tamaño del plan aunque el archivo haya crecido desde entonces
+
+            long reached = Math.min(copied, item.length);
+
+            if (reached > counted) {
+                tracker.addBytes(reached - counted);
+                counted = reached;
+            }
+
+            onChunkCopied();
+
+            if (cancellation.isCancelled()) {
+                throw new InterruptedIOException("Copy cancelled");
+            }
+
+            if (throttle != null) {
+                throttle.onChunkCopied(count, System.nanoTime() - chunkStart);
+                throttle.acquire(count, cancellation);
+                chunkStart = System.nanoTime();
+            }
+        }
+
+        /**
+         * Se llama después de cada bloque copiado
+         */
+        void onChunkCopied() {
+        }
+
+        @Override
+        public Void call() throws Exception {
+
+            cancellation.throwIfCancelled();
+
+            long start = System.nanoTime();
+
+            chunkStart = start;
+
+            for (int attempt = 0; ; attempt++) {
+
+                try {
+
+                    copyItem(item, this);
+                    break;
+
+                } catch (IOException e) {
+
+                    if (cancellation.isCancelled()) {
+
+                        // La copia normal ya borra el archivo a medias, pero la que se puede continuar lo conserva
+
+                        new ResumableCopy(item.srcFile, item.destFile).discard();
+
+                        throw new Error.CancelledException();
+                    }
+
+                    copied = 0;
+
+                    if (attempt < retries && isTransient(e)) {
+                        waitBeforeRetry(attempt);
+                        continue;
+                    }
+
+                    if (failures == null) {
+                        throw e;
+                    }
+
+                    failures.add(item, e);
+
+                    tracker.addBytes(Math.max(0, item.length - counted));
+                    tracker.addFile();
+
+                    return null;
+                }
+            }
+
+            metrics.addCopiedFile(item.source, copied, System.nanoTime() - start);
+
+            // Lo que no se ha copiado (archivos duplicados, copias que continúan...) cuenta como hecho
+
+            tracker.addBytes(Math.max(0, item.length - counted));
+            tracker.addFile();
+
+            return null;
+        }
+    }
+}
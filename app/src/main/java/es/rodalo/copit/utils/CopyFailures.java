@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Archivos que no se han podido copiar, con el motivo. Se guardan en la carpeta del backup
+ * para poder reintentar sólo esos archivos sin volver a recorrer los orígenes.
+ */
+public class CopyFailures {
+
+    public static final String FILE_NAME = ".copit_failures";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String SEPARATOR = "\t";
+    private static final String ENCODING = "UTF-8";
+
+    private final List<Failure> failures = new ArrayList<>();
+
+
+    /**
+     * Anota un archivo que no se ha podido copiar
+     */
+    public synchronized void add(CopyPlan.Item item, Exception cause) {
+
+        String message = (cause.getMessage() != null) ? cause.getMessage() : cause.getClass().getSimpleName();
+
+        failures.add(new Failure(item.source, item.srcFile, item.destFile, message));
+    }
+
+
+    /**
+     * Obtiene los archivos que no se han podido copiar, en el orden en que fallaron
+     */
+    public synchronized List<Failure> getFailures() {
+        return Collections.unmodifiableList(new ArrayList<>(failures));
+    }
+
+
+    public synchronized int size() {
+        return failures.size();
+    }
+
+
+    public synchronized boolean isEmpty() {
+        return failures.isEmpty();
+    }
+
+
+    /**
+     * Crea un plan para copiar otra vez los archivos que fallaron, leyendo de nuevo
+     * su tamaño y fecha por si han cambiado
+     */
+    public synchronized CopyPlan toPlan() {
+
+        CopyPlan plan = new CopyPlan();
+
+        for (Failure failure : failures) {
+
+            long length = failure.srcFile.length();
+
+            plan.addPending(new CopyPlan.Item(failure.source, failure.srcFile, failure.destFile,
+                    length, failure.srcFile.lastModified()));
+
+            plan.addDestination(failure.destFile.getParentFile(), length);
+        }
+
+        return plan;
+    }
+
+
+    /**
+     * Carga los archivos que fallaron en la última copia del backup indicado.
+     * Las líneas que no se pueden leer se ignoran.
+     */
+    public static CopyFailures load(File root) throws IOException {
+
+        CopyFailures result = new CopyFailures();
+
+        File file = new File(root, FILE_NAME);
+
+        if (!file.isFile()) {
+            return result;
+        }
+
+        for (String line : FileUtils.readLines(file, ENCODING)) {
+
+            String[] fields = line.split(SEPARATOR, -1);
+
+            if (fields.length == 4) {
+                result.failures.add(new Failure(decode(fields[0]), new File(decode(fields[1])),
+                        new File(decode(fields[2])), decode(fields[3])));
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Guarda los archivos que han fallado en la carpeta del backup, sustituyendo los de la
+     * copia anterior. Si no ha fallado ninguno se borra el archivo.
+     */
+    public synchronized void save(File root) throws IOException {
+
+        File file = new File(root, FILE_NAME);
+
+        if (failures.isEmpty()) {
+
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Can't delete " + file);
+            }
+
+            return;
+        }
+
+        List<String> lines = new ArrayList<>();
+
+        for (Failure failure : failures) {
+            lines.add(encode(failure.source) + SEPARATOR + encode(failure.srcFile.getPath()) + SEPARATOR +
+                    encode(failure.destFile.getPath()) + SEPARATOR + encode(failure.cause));
+        }
+
+        File temp = new File(root, FILE_NAME + TEMP_SUFFIX);
+
+        FileUtils.writeLines(temp, ENCODING, lines);
+
+        if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+
+    private static String encode(String value) {
+
+        try {
+
+            return URLEncoder.encode(value != null ? value : "", ENCODING);
+
+        } catch (UnsupportedEncodingException e) {
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static String decode(String value) {
+
+        try {
+
+            return URLDecoder.decode(value, ENCODING);
+
+        } catch (UnsupportedEncodingException e) {
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Archivo que no se ha podido copiar
+     */
+    public static class Failure {
+
+        public final String source;
+        public final File srcFile;
+        public final File destFile;
+        public final String cause;
+
+        Failure(String source, File srcFile, File destFile, String cause) {
+            this.source = source;
+            this.srcFile = srcFile;
+            this.destFile = destFile;
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Copia pedida por el usuario, con todo lo necesario para hacerla: las carpetas de origen,
+ * el destino y el modo. Dos peticiones iguales son la misma copia.
+ */
+public class CopyJob implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Qué se copia
+     */
+    public enum Mode {
+        /**
+         * Todo lo que haya cambiado desde la última copia
+         */
+        BACKUP,
+
+        /**
+         * Sólo los archivos que fallaron en la última copia, sin recorrer los orígenes
+         */
+        RETRY_FAILED
+    }
+
+    private final List<File> sources;
+    private final File destination;
+    private final String backupFolderName;
+    private final Mode mode;
+
+
+    public CopyJob(List<File> sources, File destination, String backupFolderName, Mode mode) {
+        this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+        this.destination = destination;
+        this.backupFolderName = backupFolderName;
+        this.mode = mode;
+    }
+
+
+    /**
+     * Carpetas de fotos que se copian, en el orden en que se copian
+     */
+    public List<File> getSources() {
+        return sources;
+    }
+
+
+    /**
+     * Carpeta elegida por el usuario para guardar las copias
+     */
+    public File getDestination() {
+        return destination;
+    }
+
+
+    /**
+     * Nombre de la carpeta del backup dentro del destino
+     */
+    public String getBackupFolderName() {
+        return backupFolderName;
+    }
+
+
+    public Mode getMode() {
+        return mode;
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof CopyJob)) {
+            return false;
+        }
+
+        CopyJob job = (CopyJob) other;
+
+        return sources.equals(job.sources) &&
+                destination.equals(job.destination) &&
+                backupFolderName.equals(job.backupFolderName) &&
+                mode == job.mode;
+    }
+
+
+    @Override
+    public int hashCode() {
+
+        int result = sources.hashCode();
+        result = 31 * result + destination.hashCode();
+        result = 31 * result + backupFolderName.hashCode();
+        result = 31 * result + mode.hashCode();
+
+        return result;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resultado de recorrer los orígenes antes de copiar: qué archivos hay que copiar
+ * y cuántos bytes suponen, además de lo que ya estaba copiado
+ */
+public class CopyPlan {
+
+    private static final Comparator<Item> newestFirstComparator = new Comparator<Item>() {
+        @Override
+        public int compare(Item item1, Item item2) {
+            if (item1.lastModified == item2.lastModified) {
+                return 0;
+            }
+            return (item1.lastModified > item2.lastModified) ? -1 : 1;
+        }
+    };
+
+    private final List<Item> items = new ArrayList<>();
+    private final Map<File, Long> pendingBytesByDestination = new LinkedHashMap<>();
+    private final List<Carried> carried = new ArrayList<>();
+
+    private int upToDateFiles;
+    private long upToDateBytes;
+    private long pendingBytes;
+
+
+    /**
+     * Añade un archivo que hay que copiar
+     */
+    void addPending(Item item) {
+        items.add(item);
+        pendingBytes += item.length;
+    }
+
+
+    /**
+     * Anota un archivo que ya estaba copiado
+     */
+    void addUpToDate(long length) {
+        upToDateFiles += 1;
+        upToDateBytes += length;
+    }
+
+
+    /**
+     * Anota un archivo que no ha cambiado desde la copia anterior y que no hace falta copiar,
+     * sólo enlazarlo o hacer referencia a él
+     */
+    void addCarried(Item item, File previous) {
+        carried.add(new Carried(item, previous));
+        addUpToDate(item.length);
+    }
+
+
+    /**
+     * Anota los bytes que hay que copiar en una carpeta de destino
+     */
+    void addDestination(File destDir, long bytes) {
+        Long current = pendingBytesByDestination.get(destDir);
+        pendingBytesByDestination.put(destDir, (current != null ? current : 0) + bytes);
+    }
+
+
+    /**
+     * Añade todo lo anotado en otro plan
+     */
+    void addAll(CopyPlan plan) {
+        items.addAll(plan.items);
+        carried.addAll(plan.carried);
+        pendingBytes += plan.pendingBytes;
+        upToDateFiles += plan.upToDateFiles;
+        upToDateBytes += plan.upToDateBytes;
+
+        for (Map.Entry<File, Long> entry : plan.pendingBytesByDestination.entrySet()) {
+            addDestination(entry.getKey(), entry.getValue());
+        }
+    }
+
+
+    /**
+     * Ordena los archivos pendientes de todos los orígenes para copiar primero los más recientes.
+     * Se usa la fecha leída al recorrer los orígenes, sin volver a consultar cada archivo.
+     */
+    void sortNewestFirst() {
+        Collections.sort(items, newestFirstComparator);
+    }
+
+
+    /**
+     * Archivos que hay que copiar, en el orden en que se encontraron o, si se han ordenado,
+     * del más reciente al más antiguo
+     */
+    public List<Item> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+
+    /**
+     * Archivos que no han cambiado desde la copia anterior
+     */
+    public List<Carried> getCarried() {
+        return Collections.unmodifiableList(carried);
+    }
+
+
+    /**
+     * Número de archivos que hay que copiar
+     */
+    public int getPendingFiles() {
+        return items.size();
+    }
+
+
+    /**
+     * Bytes que hay que copiar
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+
+    /**
+     * Bytes que hay que copiar en cada carpeta de destino
+     */
+    public Map<File, Long> getPendingBytesByDestination() {
+        return Collections.unmodifiableMap(pendingBytesByDestination);
+    }
+
+
+    /**
+     * Número de archivos que ya estaban copiados
+     */
+    public int getUpToDateFiles() {
+        return upToDateFiles;
+    }
+
+
+    /**
+     * Bytes que ya estaban copiados
+     */
+    public long getUpToDateBytes() {
+        return upToDateBytes;
+    }
+
+
+    /**
+     * Número total de archivos encontrados en los orígenes
+     */
+    public int getTotalFiles() {
+        return items.size() + upToDateFiles;
+    }
+
+
+    /**
+     * Bytes totales encontrados en los orígenes
+     */
+    public long getTotalBytes() {
+        return pendingBytes + upToDateBytes;
+    }
+
+
+    /**
+     * Archivo pendiente de copiar, con los datos del origen leídos al recorrerlo
+     */
+    public static class Item {
+
+        public final String source;
+        public final File srcFile;
+        public final File destFile;
+        public final long length;
+        public final long lastModified;
+
+        Item(String source, File srcFile, File destFile, long length, long lastModified) {
+            this.source = source;
+            this.srcFile = srcFile;
+            this.destFile = destFile;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+
+    /**
+     * Archivo sin cambios desde la copia anterior, con el archivo de esa copia
+     */
+    public static class Carried {
+
+        public final Item item;
+        public final File previous;
+
+        Carried(Item item, File previous) {
+            this.item = item;
+            this.previous = previous;
+        }
+    }
+}
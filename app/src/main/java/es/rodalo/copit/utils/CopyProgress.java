@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+/**
+ * Estado del proceso de copia en un momento dado
+ */
+public class CopyProgress {
+
+    /**
+     * Valor usado cuando todavía no se puede estimar el tiempo restante
+     */
+    public static final long UNKNOWN = -1;
+
+    public final int files;
+    public final int totalFiles;
+    public final long bytes;
+    public final long totalBytes;
+    public final long bytesPerSecond;
+    public final long remainingMillis;
+
+
+    public CopyProgress(int files, int totalFiles, long bytes, long totalBytes, long bytesPerSecond, long remainingMillis) {
+        this.files = files;
+        this.totalFiles = totalFiles;
+        this.bytes = bytes;
+        this.totalBytes = totalBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.remainingMillis = remainingMillis;
+    }
+
+
+    /**
+     * Indica si ya se han copiado todos los archivos
+     */
+    public boolean isComplete() {
+        return files >= totalFiles;
+    }
+}
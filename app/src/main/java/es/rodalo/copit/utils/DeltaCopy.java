@@ -0,0 +1,378 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Actualiza una copia anterior de un archivo grande reescribiendo sólo los bloques que han cambiado.
+ *
+ * Se compara la suma de control de cada bloque del origen con la del mismo bloque del destino,
+ * así que sirve cuando los cambios no desplazan el resto del archivo: una etiqueta EXIF
+ * modificada, los metadatos de un vídeo reescritos o una grabación que ha crecido por el final.
+ * Al terminar se comprueba la huella del destino completo; si no coincide con la del origen
+ * hay que copiar el archivo entero.
+ *
+ * El destino es la única copia, así que antes de reescribir un bloque se guarda el original
+ * en un diario junto al destino. Si la actualización falla, se cancela o no coincide la huella
+ * se deshacen los cambios, y si se interrumpe de golpe se deshacen la próxima vez que se copie
+ * el archivo (ver {@link #recover(File)}).
+ */
+public class DeltaCopy {
+
+    /**
+     * Tamaño a partir del cual merece la pena comparar bloques en vez de copiar el archivo
+     */
+    public static final long MIN_SIZE = 16 * 1024 * 1024;
+
+    public static final String JOURNAL_SUFFIX = ".copit-delta";
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Los bloques originales se guardan en el diario por tramos de este tamaño antes de reescribirlos,
+     * para no tener que forzar la escritura del diario en cada bloque
+     */
+    private static final long REGION_SIZE = Files.TRANSFER_CHUNK_SIZE;
+
+    private final File srcFile;
+    private final File destFile;
+    private final File journalFile;
+
+    private CancellationToken cancellation;
+    private long bytesWritten;
+
+
+    public DeltaCopy(File srcFile, File destFile) {
+        this.srcFile = srcFile;
+        this.destFile = destFile;
+        this.journalFile = getJournalFile(destFile);
+    }
+
+
+    /**
+     * Establece el testigo con el que se puede cancelar la actualización
+     */
+    public DeltaCopy cancellation(CancellationToken cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+
+    /**
+     * Comprueba si hay una copia anterior del archivo que se pueda actualizar por bloques
+     */
+    public static boolean isCandidate(File destFile, long length) {
+
+        return length >= MIN_SIZE && destFile.isFile() && destFile.length() >= MIN_SIZE;
+    }
+
+
+    /**
+     * Actualiza el destino. Si al final no coincide con el origen se deja como estaba y devuelve false.
+     * Al listener sólo se le avisa de los bytes del archivo una vez comprobado que la copia es correcta.
+     */
+    public boolean copy(Files.CopyListener listener) throws IOException {
+
+        recover(destFile);
+
+        long originalLength = destFile.length();
+        long originalLastModified = destFile.lastModified();
+
+        MessageDigest digest = Files.newDigest();
+
+        FileInputStream input = null;
+        RandomAccessFile output = null;
+        RandomAccessFile journal = null;
+
+        boolean verified = false;
+        long size;
+
+        try {
+
+            journal = new RandomAccessFile(journalFile, "rw");
+
+            journal.setLength(0);
+            journal.writeLong(originalLength);
+            journal.writeLong(originalLastModified);
+            journal.getChannel().force(false);
+
+            input = new FileInputStream(srcFile);
+            output = new RandomAccessFile(destFile, "rw");
+
+            FileChannel in = input.getChannel();
+            FileChannel out = output.getChannel();
+
+            size = in.size();
+
+            ByteBuffer srcBlock = ByteBuffer.allocate(BLOCK_SIZE);
+            ByteBuffer destBlock = ByteBuffer.allocate(BLOCK_SIZE);
+
+            List<Long> changed = new ArrayList<>();
+
+            for (long region = 0; region < size; region += REGION_SIZE) {
+
+                if (cancellation != null && cancellation.isCancelled()) {
+                    throw new InterruptedIOException("Copy cancelled");
+                }
+
+                long end = Math.min(size, region + REGION_SIZE);
+
+                changed.clear();
+
+                for (long position = region; position < end; position += BLOCK_SIZE) {
+
+                    int count = (int) Math.min(BLOCK_SIZE, size - position);
+
+                    // Lo que pasa del final del destino es nuevo: no se alarga antes para no rellenarlo de ceros
+
+                    int existing = (int) Math.max(0, Math.min(count, originalLength - position));
+
+                    read(in, srcBlock, position, count);
+                    read(out, destBlock, position, existing);
+
+                    digest.update(srcBlock.array(), 0, count);
+
+                    if (existing < count || checksum(srcBlock, count) != checksum(destBlock, count)) {
+                        changed.add(position);
+                        saveBlock(journal, destBlock, position, existing);
+                    }
+                }
+
+                if (changed.isEmpty()) {
+                    continue;
+                }
+
+                journal.getChannel().force(false);
+
+                for (long position : changed) {
+
+                    int count = (int) Math.min(BLOCK_SIZE, size - position);
+
+                    read(in, srcBlock, position, count);
+                    srcBlock.rewind();
+
+                    while (srcBlock.hasRemaining()) {
+                        out.write(srcBlock, position + srcBlock.position());
+                    }
+
+                    bytesWritten += count;
+                }
+            }
+
+            if (size < originalLength) {
+
+                // Lo que sobra al final también se guarda antes de recortarlo
+
+                for (long position = size; position < originalLength; position += BLOCK_SIZE) {
+
+                    int count = (int) Math.min(BLOCK_SIZE, originalLength - position);
+
+                    read(out, destBlock, position, count);
+                    saveBlock(journal, destBlock, position, count);
+                }
+
+                journal.getChannel().force(false);
+
+                output.setLength(size);
+            }
+
+            out.force(false);
+            output.close();
+
+            verified = Files.hash(destFile).equals(Files.toHex(digest.digest()));
+
+        } finally {
+
+            IOUtils.closeQuietly(output);
+            IOUtils.closeQuietly(input);
+            IOUtils.closeQuietly(journal);
+
+            if (!verified) {
+                recover(destFile);
+            }
+        }
+
+        if (!verified) {
+            return false;
+        }
+
+        destFile.setLastModified(srcFile.lastModified());
+
+        FileUtils.deleteQuietly(journalFile);
+
+        if (listener != null) {
+            for (long done = 0; done < size; done += Files.TRANSFER_CHUNK_SIZE) {
+                listener.onBytesCopied(Math.min(Files.TRANSFER_CHUNK_SIZE, size - done));
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Bytes reescritos en el destino
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+
+    /**
+     * Deshace una actualización que no terminó, devolviendo al destino los bloques originales
+     * guardados en su diario. Si no hay diario no hace nada.
+     */
+    public static void recover(File destFile) throws IOException {
+
+        File journalFile = getJournalFile(destFile);
+
+        if (!journalFile.isFile()) {
+            return;
+        }
+
+        RandomAccessFile journal = null;
+        RandomAccessFile output = null;
+
+        try {
+
+            journal = new RandomAccessFile(journalFile, "r");
+
+            long originalLength;
+            long originalLastModified;
+
+            try {
+
+                originalLength = journal.readLong();
+                originalLastModified = journal.readLong();
+
+            } catch (EOFException e) {
+
+                // El diario se cortó antes de tocar el destino
+
+                originalLength = -1;
+                originalLastModified = 0;
+            }
+
+            if (originalLength >= 0) {
+
+                output = new RandomAccessFile(destFile, "rw");
+
+                byte[] block = new byte[BLOCK_SIZE];
+
+                while (true) {
+
+                    long position;
+                    int count;
+
+                    try {
+
+                        position = journal.readLong();
+                        count = journal.readInt();
+
+                        if (count < 0 || count > BLOCK_SIZE) {
+                            break;
+                        }
+
+                        journal.readFully(block, 0, count);
+
+                    } catch (EOFException e) {
+
+                        // Un bloque a medias en el diario todavía no se había reescrito en el destino
+
+                        break;
+                    }
+
+                    output.seek(position);
+                    output.write(block, 0, count);
+                }
+
+                output.setLength(originalLength);
+                output.getChannel().force(false);
+                output.close();
+
+                destFile.setLastModified(originalLastModified);
+            }
+
+        } finally {
+
+            IOUtils.closeQuietly(output);
+            IOUtils.closeQuietly(journal);
+        }
+
+        FileUtils.deleteQuietly(journalFile);
+    }
+
+
+    private static File getJournalFile(File destFile) {
+        return new File(destFile.getPath() + JOURNAL_SUFFIX);
+    }
+
+
+    /**
+     * Guarda en el diario la parte original de un bloque del destino
+     */
+    private static void saveBlock(RandomAccessFile journal, ByteBuffer block, long position, int count) throws IOException {
+
+        if (count <= 0) {
+            return;
+        }
+
+        journal.writeLong(position);
+        journal.writeInt(count);
+        journal.write(block.array(), 0, count);
+    }
+
+
+    /**
+     * Lee un bloque completo del canal en la posición indicada
+     */
+    private static void read(FileChannel channel, ByteBuffer block, long position, int count) throws IOException {
+
+        block.clear();
+        block.limit(count);
+
+        while (block.hasRemaining()) {
+
+            if (channel.read(block, position + block.position()) == -1) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+
+    private static long checksum(ByteBuffer block, int count) {
+
+        CRC32 crc = new CRC32();
+        crc.update(block.array(), 0, count);
+
+        return crc.getValue();
+    }
+}
@@ -16,6 +16,9 @@
 
 package es.rodalo.copit.utils;
 
+import android.os.Build;
+import android.os.Environment;
+
 import java.io.File;
 import java.util.Date;
 
@@ -51,4 +54,29 @@ public class Device {
         return "";
     }
 
+
+    /**
+     * Comprueba si la carpeta está en una memoria extraíble (USB, SD)
+     */
+    public static boolean isRemovable(File folder) {
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+
+            try {
+
+                return Environment.isExternalStorageRemovable(folder);
+
+            } catch (IllegalArgumentException e) {
+
+                // Las memorias USB no siempre están registradas como almacenamiento del sistema
+
+                return true;
+            }
+        }
+
+        String path = folder.getAbsolutePath();
+
+        return !path.startsWith(Environment.getExternalStorageDirectory().getAbsolutePath()) &&
+                !path.startsWith(Environment.getDataDirectory().getAbsolutePath());
+    }
 }
@@ -23,6 +23,16 @@ import es.rodalo.copit.R;
  */
 public class Error extends Exception {
 
+    public Error() {
+        super();
+    }
+
+
+    public Error(String message) {
+        super(message);
+    }
+
+
     public int getMessageKey() {
         return R.string.error_copy_unknown;
     }
@@ -71,4 +81,39 @@ public class Error extends Exception {
             return R.string.error_copy_rights;
         }
     }
+
+
+    public static class NotEnoughSpaceException extends Error {
+
+        private final long requiredBytes;
+        private final long availableBytes;
+
+        public NotEnoughSpaceException(long requiredBytes, long availableBytes) {
+            super("Not enough space: " + requiredBytes + " bytes required, " + availableBytes + " available");
+            this.requiredBytes = requiredBytes;
+            this.availableBytes = availableBytes;
+        }
+
+        public long getRequiredBytes() {
+            return requiredBytes;
+        }
+
+        public long getAvailableBytes() {
+            return availableBytes;
+        }
+
+        @Override
+        public int getMessageKey() {
+            return R.string.error_copy_nospace;
+        }
+    }
+
+
+    public static class CancelledException extends Error {
+
+        @Override
+        public int getMessageKey() {
+            return R.string.message_copy_cancelled;
+        }
+    }
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.FileDescriptor;
+
+/**
+ * Reserva en el sistema de archivos el espacio de un archivo antes de escribirlo, sin escribir
+ * nada en él, para que pueda asignarle espacio contiguo de una vez
+ */
+public interface FileAllocator {
+
+    /**
+     * Reserva el tamaño indicado para el archivo abierto. Devuelve false si el sistema
+     * de archivos no lo permite, y entonces el archivo se escribe sin reservar nada.
+     */
+    boolean allocate(FileDescriptor fd, long size);
+}
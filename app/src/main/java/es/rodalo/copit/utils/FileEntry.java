@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+import java.util.Comparator;
+
+/**
+ * Archivo o carpeta con los atributos leídos de una sola vez al recorrer el árbol
+ */
+public class FileEntry {
+
+    /**
+     * Comparador que permite ordenar por fecha de modificación (los más recientes primero)
+     */
+    public static final Comparator<FileEntry> lastModifiedComparator = new Comparator<FileEntry>() {
+        @Override
+        public int compare(FileEntry entry1, FileEntry entry2) {
+            if (entry1.lastModified == entry2.lastModified) {
+                return 0;
+            }
+            return (entry1.lastModified > entry2.lastModified) ? -1 : 1;
+        }
+    };
+
+    public final File file;
+    public final boolean directory;
+    public final long length;
+    public final long lastModified;
+
+    public FileEntry(File file, boolean directory, long length, long lastModified) {
+        this.file = file;
+        this.directory = directory;
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+
+    public String getName() {
+        return file.getName();
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+
+/**
+ * Crea un archivo que comparte el contenido con otro sin copiar sus bytes (un enlace duro
+ * o un clon del sistema de archivos). Sólo funciona si ambos están en el mismo volumen.
+ */
+public interface FileLinker {
+
+    /**
+     * Crea el archivo de destino, que todavía no existe, a partir del de origen.
+     * Devuelve false si el sistema de archivos no lo permite, para copiarlo de la forma normal.
+     */
+    boolean link(File src, File dest);
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+
+/**
+ * Lee los atributos de un archivo (tipo, tamaño y fecha) con las menos llamadas al sistema posibles
+ */
+public interface FileStat {
+
+    /**
+     * Obtiene los atributos del archivo, o null si ya no existe
+     */
+    FileEntry stat(File file);
+}
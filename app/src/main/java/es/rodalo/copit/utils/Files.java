@@ -17,14 +17,24 @@
 package es.rodalo.copit.utils;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOCase;
-import org.apache.commons.io.filefilter.SuffixFileFilter;
-import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.IOUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.Comparator;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import es.rodalo.copit.utils.copy.CopyStrategies;
+import es.rodalo.copit.utils.copy.CopyStrategy;
 
 /**
  * Métodos para trabajar con ficheros
@@ -34,23 +44,41 @@ public class Files {
     private static final String[] imageExtensions = new String[]{"jpg", "jpeg", "png", "gif", "bmp"};
     private static final String[] videoExtensions = new String[]{"mp4", "avi", "mpg", "mpeg", "mov"};
 
-
     /**
-     * Comparador que permite ordenar ficheros por fecha de modificación (los más recientes primero)
+     * Tipo de archivo según su extensión, para clasificarlos con una sola consulta
      */
-    public static final Comparator<File> lastModifiedComparator = new Comparator<File>() {
+    private static final Map<String, MediaType> mediaTypes = new HashMap<>();
 
-        public int compare(File file1, File file2) {
-            long result = file1.lastModified() - file2.lastModified();
-            if (result < 0) {
-                return 1;
-            } else if (result > 0) {
-                return -1;
-            } else {
-                return 0;
-            }
+    static {
+        for (String extension : imageExtensions) {
+            mediaTypes.put(extension, MediaType.IMAGE);
         }
-    };
+        for (String extension : videoExtensions) {
+            mediaTypes.put(extension, MediaType.VIDEO);
+        }
+    }
+
+    private static final FilenameFilter imageFilter = new MediaFilter(MediaType.IMAGE);
+    private static final FilenameFilter videoFilter = new MediaFilter(MediaType.VIDEO);
+
+    static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Nombre temporal del enlace mientras sustituye al archivo de destino
+     */
+    private static final String LINK_SUFFIX = ".copit-link";
+
+    /**
+     * Nombre temporal de la copia de un archivo pequeño hasta que sustituye al de destino
+     */
+    public static final String TEMP_SUFFIX = ".copit-temp";
+    private static final long RESUMABLE_MIN_SIZE = 32 * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static volatile FileAllocator allocator;
+
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
 
     /**
@@ -59,50 +87,339 @@ public class Files {
      */
     public static void copyFolder(File srcDir, File destDir, CopyProgressCallback callback) throws Exception {
 
-        validateCopy(srcDir, destDir);
+        copyFolder(srcDir, destDir, CopyEngine.SEQUENTIAL, callback);
+    }
+
+
+    /**
+     * Copia archivos entre las carpetas indicadas usando
+     * como máximo el número de hilos indicado
+     */
+    public static void copyFolder(File srcDir, File destDir, int workers, CopyProgressCallback callback) throws Exception {
+
+        copyFolder(srcDir, destDir, new CopyEngine().workers(workers), callback);
+    }
+
+
+    /**
+     * Copia archivos entre las carpetas indicadas usando el motor de copia indicado
+     */
+    public static void copyFolder(File srcDir, File destDir, CopyEngine engine, CopyProgressCallback callback) throws Exception {
+
+        engine.copy(srcDir, destDir, callback);
+    }
+
+
+    /**
+     * Copia un único archivo manteniendo su fecha de modificación.
+     * Los datos se pasan de un canal a otro sin atravesar buffers de la aplicación
+     * siempre que el sistema de archivos lo permita.
+     */
+    public static void copyFile(File srcFile, File destFile) throws IOException {
+
+        copyFile(srcFile, destFile, null);
+    }
+
+
+    /**
+     * Copia un único archivo avisando al listener después de cada bloque copiado
+     */
+    public static void copyFile(File srcFile, File destFile, CopyListener listener) throws IOException {
+
+        copyFile(srcFile, destFile, CopyStrategies.select(srcFile.length(), false), listener);
+    }
+
+
+    /**
+     * Copia un único archivo con la estrategia indicada
+     */
+    public static void copyFile(File srcFile, File destFile, CopyStrategy strategy, CopyListener listener) throws IOException {
+
+        doCopyFile(srcFile, destFile, strategy, null, listener);
+    }
+
+
+    /**
+     * Copia un único archivo calculando a la vez la huella de su contenido
+     */
+    public static String copyFileAndHash(File srcFile, File destFile, CopyStrategy strategy, CopyListener listener) throws IOException {
+
+        MessageDigest digest = newDigest();
+
+        doCopyFile(srcFile, destFile, strategy, digest, listener);
+
+        return toHex(digest.digest());
+    }
+
+
+    /**
+     * Crea el archivo de destino compartiendo el contenido del de origen, sin copiar sus bytes.
+     * El destino anterior, si lo hay, sólo se sustituye si se ha podido crear el enlace.
+     * Devuelve false si no se ha podido, para copiarlo de la forma normal.
+     */
+    public static boolean linkFile(File srcFile, File destFile, FileLinker linker) throws IOException {
+
+        createParentFolder(destFile);
+
+        File temp = new File(destFile.getPath() + LINK_SUFFIX);
+
+        if (temp.exists() && !temp.delete()) {
+            return false;
+        }
 
-        doCopyFolder(srcDir, destDir, callback);
+        if (!linker.link(srcFile, temp)) {
+            return false;
+        }
+
+        if (!temp.renameTo(destFile)) {
+            FileUtils.deleteQuietly(temp);
+            return false;
+        }
+
+        // Si el destino ya era un enlace al mismo archivo el nombre temporal no desaparece
+
+        FileUtils.deleteQuietly(temp);
+
+        return true;
     }
 
 
     /**
-     * Copia archivos entre las carpetas indicadas
+     * Calcula la huella del contenido del archivo indicado
      */
-    private static void doCopyFolder(File srcDir, File destDir, CopyProgressCallback callback) throws Exception {
+    public static String hash(File file) throws IOException {
+
+        MessageDigest digest = newDigest();
 
-        File[] srcFiles = srcDir.listFiles();
+        FileInputStream input = null;
 
-        int count = 0;
-        int total = srcFiles.length;
+        try {
 
-        for (File srcFile : srcFiles) {
+            input = new FileInputStream(file);
 
-            File destFile = new File(destDir, srcFile.getName());
+            FileChannel in = input.getChannel();
 
-            if (srcFile.isDirectory()) {
+            update(digest, in, 0, in.size());
 
-                doCopyFolder(srcFile, destFile, callback);
+        } finally {
 
-            } else {
+            IOUtils.closeQuietly(input);
+        }
+
+        return toHex(digest.digest());
+    }
+
+
+    /**
+     * Copia un archivo. Si se indica un digest los datos pasan por un buffer
+     * intermedio para poder calcular la huella durante la copia.
+     * Los archivos grandes se copian de forma que se pueda continuar si se interrumpe;
+     * el resto se copia en un archivo temporal que después sustituye al de destino, así que si
+     * la copia falla o se cancela no se deja el archivo a medias. Nunca se escribe sobre el
+     * destino: podría ser un enlace a un archivo de otra copia fechada.
+     */
+    private static void doCopyFile(File srcFile, File destFile, CopyStrategy strategy, MessageDigest digest, CopyListener listener) throws IOException {
+
+        if (srcFile.length() >= RESUMABLE_MIN_SIZE) {
+            new ResumableCopy(srcFile, destFile).strategy(strategy).digest(digest).copy(listener);
+            return;
+        }
 
-                if (isNotTheSameFile(srcFile, destFile)) {
-                    FileUtils.copyFile(srcFile, destFile, true);
+        createParentFolder(destFile);
+
+        File tempFile = new File(destFile.getPath() + TEMP_SUFFIX);
+
+        FileInputStream input = null;
+        RandomAccessFile output = null;
+
+        boolean completed = false;
+
+        try {
+
+            input = new FileInputStream(srcFile);
+            output = new RandomAccessFile(tempFile, "rw");
+
+            FileChannel in = input.getChannel();
+            FileChannel out = output.getChannel();
+
+            long size = in.size();
+            long position = 0;
+            long chunkSize = CopyStrategies.getChunkSize(strategy, TRANSFER_CHUNK_SIZE);
+
+            // Puede quedar un temporal de una copia anterior que no llegó a borrarse
+
+            out.truncate(0);
+            preallocate(output, size);
+
+            while (position < size) {
+
+                long count = copyRange(strategy, in, out, position, Math.min(chunkSize, size - position), digest);
+
+                position += count;
+
+                if (listener != null) {
+                    listener.onBytesCopied(count);
                 }
             }
 
-            count += 1;
+            output.close();
 
-            if (callback != null) {
-                callback.onProgress(count, total);
+            replaceFile(tempFile, destFile);
+
+            completed = true;
+
+        } finally {
+
+            IOUtils.closeQuietly(output);
+            IOUtils.closeQuietly(input);
+
+            if (!completed && output != null) {
+                FileUtils.deleteQuietly(tempFile);
             }
         }
+
+        destFile.setLastModified(srcFile.lastModified());
+    }
+
+
+    /**
+     * Sustituye el archivo de destino por el indicado. Si el destino era un enlace, el archivo
+     * al que apuntaba no cambia.
+     */
+    static void replaceFile(File file, File destFile) throws IOException {
+
+        if (file.renameTo(destFile)) {
+            return;
+        }
+
+        // En algunos sistemas de archivos no se puede renombrar sobre un archivo que ya existe
+
+        if (destFile.exists() && !destFile.delete()) {
+            throw new IOException("Can't replace " + destFile);
+        }
+
+        if (!file.renameTo(destFile)) {
+            throw new IOException("Can't rename " + file);
+        }
+    }
+
+
+    /**
+     * Establece cómo reservar el espacio de los archivos copiados. Sin él no se reserva nada.
+     */
+    public static void setAllocator(FileAllocator allocator) {
+        Files.allocator = allocator;
+    }
+
+
+    /**
+     * Reserva el tamaño final del archivo de destino antes de escribirlo, de forma que el sistema
+     * de archivos pueda asignarle espacio contiguo y no tenga que actualizar su tamaño en cada bloque.
+     * No se usa setLength: en FAT32 y exFAT rellena el archivo de ceros, y se escribiría dos veces.
+     */
+    static void preallocate(RandomAccessFile file, long size) throws IOException {
+
+        FileAllocator allocator = Files.allocator;
+
+        if (allocator != null && size > 0) {
+            allocator.allocate(file.getFD(), size);
+        }
+    }
+
+
+    /**
+     * Crea la carpeta donde irá el archivo indicado
+     */
+    static void createParentFolder(File file) throws IOException {
+
+        File parent = file.getParentFile();
+
+        if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Can't create folder " + parent);
+        }
+    }
+
+
+    /**
+     * Copia un bloque del canal de entrada en la posición actual del canal de salida
+     * usando la estrategia indicada
+     */
+    static long copyRange(CopyStrategy strategy, FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException {
+
+        long done = strategy.copy(in, out, position, count, digest);
+
+        if (done != count) {
+            throw new IOException("Unexpected end of file");
+        }
+
+        return done;
+    }
+
+
+    /**
+     * Añade a la huella un bloque del canal indicado
+     */
+    static void update(MessageDigest digest, FileChannel in, long position, long count) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+
+        long done = 0;
+
+        while (done < count) {
+
+            buffer.limit((int) Math.min(buffer.capacity(), count - done));
+
+            int read = in.read(buffer, position + done);
+
+            if (read == -1) {
+                break;
+            }
+
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+
+            done += read;
+        }
+    }
+
+
+    /**
+     * Crea el algoritmo usado para calcular la huella de los archivos
+     */
+    static MessageDigest newDigest() {
+
+        try {
+
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+
+        } catch (NoSuchAlgorithmException e) {
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Convierte una huella a su representación hexadecimal
+     */
+    static String toHex(byte[] bytes) {
+
+        char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+
+        return new String(chars);
     }
 
 
     /**
      * Comprueba si es posible ejecutar la copia de archivos entre el origen y destino
      */
-    private static void validateCopy(File source, File dest) throws Exception {
+    static void validateCopy(File source, File dest) throws Exception {
 
         if (!source.exists() || !source.isDirectory()) {
             throw new Error.NoSourceException();
@@ -157,19 +474,19 @@ public class Files {
 
 
     /**
-     * Comprueba si los archivos indicados son iguales o no
+     * Comprueba si el archivo de destino es distinto del origen con el tamaño y la fecha indicados
      */
-    private static boolean isNotTheSameFile(File srcFile, File destFile) {
+    static boolean isNotTheSameFile(long srcLength, long srcLastModified, File destFile) {
 
         if ( ! destFile.exists()) {
             return true;
         }
 
-        if (srcFile.lastModified() != destFile.lastModified()) {
+        if (srcLastModified != destFile.lastModified()) {
             return true;
         }
 
-        if (srcFile.length() != destFile.length()) {
+        if (srcLength != destFile.length()) {
             return true;
         }
 
@@ -180,30 +497,87 @@ public class Files {
     /**
      * Obtiene las imagenes de la carpeta indicada
      */
-    public static Collection<File> getImages(File directory) {
+    public static List<FileEntry> getImages(File directory) {
+        return getImages(directory, new TreeWalker());
+    }
+
 
-        return FileUtils.listFiles(
-                directory,
-                new SuffixFileFilter(imageExtensions, IOCase.INSENSITIVE),
-                TrueFileFilter.TRUE);
+    /**
+     * Obtiene las imagenes de la carpeta indicada, recorriéndola con el lector indicado
+     */
+    public static List<FileEntry> getImages(File directory, TreeWalker walker) {
+        return walker.find(directory, imageFilter);
     }
 
 
     /**
      * Obtiene los videos de la carpeta indicada
      */
-    public static Collection<File> getVideos(File directory) {
+    public static List<FileEntry> getVideos(File directory) {
+        return getVideos(directory, new TreeWalker());
+    }
+
+
+    /**
+     * Obtiene los videos de la carpeta indicada, recorriéndola con el lector indicado
+     */
+    public static List<FileEntry> getVideos(File directory, TreeWalker walker) {
+        return walker.find(directory, videoFilter);
+    }
+
+
+    /**
+     * Obtiene el tipo de archivo multimedia según la extensión del nombre, o null si no lo es
+     */
+    public static MediaType getMediaType(String name) {
+
+        int dot = name.lastIndexOf('.');
+
+        if (dot < 0) {
+            return null;
+        }
+
+        return mediaTypes.get(name.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+
+    public enum MediaType {
+        IMAGE, VIDEO
+    }
+
+
+    /**
+     * Acepta los archivos multimedia del tipo indicado
+     */
+    private static class MediaFilter implements FilenameFilter {
 
-        return FileUtils.listFiles(
-                directory,
-                new SuffixFileFilter(videoExtensions, IOCase.INSENSITIVE),
-                TrueFileFilter.TRUE);
+        private final MediaType type;
+
+        MediaFilter(MediaType type) {
+            this.type = type;
+        }
+
+        @Override
+        public boolean accept(File directory, String name) {
+            return getMediaType(name) == type;
+        }
     }
 
 
     public interface CopyProgressCallback {
 
-        void onProgress(int progress, int total);
+        void onProgress(CopyProgress progress);
+
+    }
+
+
+    /**
+     * Recibe los avisos durante la copia de un archivo.
+     * Si lanza una excepción la copia se interrumpe.
+     */
+    public interface CopyListener {
+
+        void onBytesCopied(long count) throws IOException;
 
     }
 }
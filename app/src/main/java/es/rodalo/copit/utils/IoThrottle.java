@@ -0,0 +1,228 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limita la velocidad de copia para que el móvil se pueda seguir usando mientras se hace
+ * el backup (cubo de fichas). Se comparte entre todos los hilos de copia, así que el límite
+ * es el total de la copia y no el de cada archivo.
+ *
+ * En modo adaptativo la velocidad baja a la mitad cuando los bloques tardan bastante más de lo
+ * normal en escribirse, señal de que otra aplicación (la cámara, la galería...) está usando
+ * el almacenamiento, y va subiendo poco a poco mientras los bloques vuelvan a ir rápido.
+ */
+public class IoThrottle {
+
+    /**
+     * Velocidad que indica que no hay límite
+     */
+    public static final long UNLIMITED = 0;
+
+    /**
+     * Velocidad mínima a la que puede bajar la copia en modo adaptativo
+     */
+    static final long MIN_RATE = 512 * 1024;
+
+    /**
+     * Cuántas veces más lento de lo normal tiene que ir un bloque para frenar la copia
+     */
+    static final int LATENCY_FACTOR = 2;
+
+    /**
+     * Tamaño mínimo de un bloque para tenerlo en cuenta: en los más pequeños pesa más abrir
+     * el archivo que escribirlo
+     */
+    private static final long MIN_SAMPLE_BYTES = 1024 * 1024;
+
+    /**
+     * Tiempo mínimo entre dos frenadas, para que varios hilos no frenen a la vez por lo mismo
+     */
+    private static final long BACKOFF_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Bytes que se pueden copiar de golpe si no se indica otra cosa: un bloque de copia
+     */
+    private static final long DEFAULT_BURST = 8 * 1024 * 1024;
+
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long maxRate;
+    private final long burst;
+    private boolean adaptive;
+
+    private long rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    private double baseline;
+    private long lastBackoff;
+
+
+    /**
+     * @param rate  bytes por segundo como máximo, o {@link #UNLIMITED}
+     * @param burst bytes que se pueden copiar de golpe después de una pausa
+     *              (si no se indica, un bloque de copia)
+     */
+    public IoThrottle(long rate, long burst) {
+
+        this.maxRate = Math.max(UNLIMITED, rate);
+        this.rate = this.maxRate;
+        this.burst = (burst > 0) ? burst : DEFAULT_BURST;
+        this.tokens = this.burst;
+    }
+
+
+    /**
+     * Indica si la velocidad se debe ajustar según lo que tarda en escribirse cada bloque
+     */
+    public IoThrottle adaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+
+    /**
+     * Obtiene la velocidad máxima actual en bytes por segundo, o {@link #UNLIMITED}
+     */
+    public synchronized long getRate() {
+        return rate;
+    }
+
+
+    /**
+     * Espera lo necesario para no superar la velocidad máxima después de copiar los bytes indicados.
+     * La espera se interrumpe si se cancela la copia.
+     */
+    public void acquire(long bytes, CancellationToken cancellation) throws InterruptedIOException {
+
+        long wait = reserve(bytes);
+
+        long deadline = System.nanoTime() + wait;
+
+        while (wait > 0) {
+
+            if (cancellation != null && cancellation.isCancelled()) {
+                throw new InterruptedIOException("Copy cancelled");
+            }
+
+            try {
+
+                TimeUnit.NANOSECONDS.sleep(Math.min(wait, WAIT_SLICE_NANOS));
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Copy interrupted");
+            }
+
+            wait = deadline - System.nanoTime();
+        }
+    }
+
+
+    /**
+     * Anota lo que ha tardado en copiarse un bloque, para ajustar la velocidad en modo adaptativo
+     */
+    public synchronized void onChunkCopied(long bytes, long nanos) {
+
+        if (!adaptive || bytes < MIN_SAMPLE_BYTES || nanos <= 0) {
+            return;
+        }
+
+        double nanosPerByte = (double) nanos / bytes;
+
+        if (baseline == 0 || nanosPerByte < baseline) {
+            baseline = nanosPerByte;
+            increase();
+            return;
+        }
+
+        if (nanosPerByte > baseline * LATENCY_FACTOR) {
+            backOff(bytes, nanos);
+            return;
+        }
+
+        // La referencia sube despacio, por si el almacenamiento va más lento por otros motivos (calor, desgaste)
+
+        baseline += (nanosPerByte - baseline) / 64;
+
+        increase();
+    }
+
+
+    /**
+     * Descuenta los bytes copiados y calcula cuánto hay que esperar para ponerse al día
+     */
+    private synchronized long reserve(long bytes) {
+
+        if (rate == UNLIMITED) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+
+        tokens = Math.min(burst, tokens + (now - lastRefill) * (double) rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+
+        tokens -= bytes;
+
+        return (tokens >= 0) ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+
+    private void backOff(long bytes, long nanos) {
+
+        long now = System.nanoTime();
+
+        if (lastBackoff != 0 && now - lastBackoff < BACKOFF_INTERVAL_NANOS) {
+            return;
+        }
+
+        lastBackoff = now;
+
+        // Sin límite se parte de la velocidad que se estaba consiguiendo
+
+        long current = (rate != UNLIMITED) ? rate : (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / nanos);
+
+        setRate(Math.max(MIN_RATE, current / 2));
+    }
+
+
+    private void increase() {
+
+        if (rate == UNLIMITED) {
+            return;
+        }
+
+        long increased = rate + Math.max(MIN_RATE, rate / 16);
+
+        setRate((maxRate != UNLIMITED) ? Math.min(maxRate, increased) : increased);
+    }
+
+
+    private void setRate(long rate) {
+
+        if (this.rate == UNLIMITED) {
+            tokens = Math.min(tokens, burst);
+            lastRefill = System.nanoTime();
+        }
+
+        this.rate = rate;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+/**
+ * Cola de copias pendientes. Las copias se hacen de una en una en el ejecutor indicado,
+ * ya que comparten el almacenamiento, y una petición igual a otra que está en marcha o
+ * esperando se une a ella en vez de repetir la copia.
+ */
+public class JobQueue {
+
+    /**
+     * Hace cada copia de la cola
+     */
+    public interface Runner {
+
+        /**
+         * Hace la copia indicada. El testigo se cancela si se cancelan las copias de la cola.
+         */
+        void run(CopyJob job, CancellationToken cancellation);
+
+
+        /**
+         * Se llama cuando termina una copia y no quedan más en la cola. Se llama con la cola
+         * bloqueada, así que nadie puede añadir otra copia mientras tanto y no debe tardar.
+         */
+        void onIdle();
+    }
+
+    private final Executor executor;
+    private final Runner runner;
+
+    private final LinkedList<CopyJob> pending = new LinkedList<>();
+
+    private CopyJob running;
+    private CancellationToken cancellation;
+
+
+    public JobQueue(Executor executor, Runner runner) {
+        this.executor = executor;
+        this.runner = runner;
+    }
+
+
+    /**
+     * Añade una copia a la cola. Devuelve false si ya estaba en marcha o esperando.
+     */
+    public synchronized boolean submit(CopyJob job) {
+
+        if (job.equals(running) || pending.contains(job)) {
+            return false;
+        }
+
+        pending.add(job);
+
+        if (running == null) {
+            startNext();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Cancela la copia en marcha y descarta las que estaban esperando
+     */
+    public synchronized void cancelAll() {
+
+        pending.clear();
+
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+    }
+
+
+    /**
+     * Indica si no hay ninguna copia en marcha ni esperando
+     */
+    public synchronized boolean isIdle() {
+        return running == null && pending.isEmpty();
+    }
+
+
+    /**
+     * Obtiene la copia en marcha, o null si no hay ninguna
+     */
+    public synchronized CopyJob getRunning() {
+        return running;
+    }
+
+
+    private void startNext() {
+
+        running = pending.poll();
+
+        if (running == null) {
+            cancellation = null;
+            return;
+        }
+
+        final CopyJob job = running;
+        final CancellationToken token = new CancellationToken();
+
+        cancellation = token;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                try {
+
+                    runner.run(job, token);
+
+                } finally {
+
+                    onFinished();
+                }
+            }
+        });
+    }
+
+
+    private synchronized void onFinished() {
+
+        startNext();
+
+        if (running == null) {
+            runner.onIdle();
+        }
+    }
+}
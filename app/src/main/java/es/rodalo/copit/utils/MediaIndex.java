@@ -0,0 +1,671 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Índice de los archivos de los orígenes con su tipo, tamaño, fecha y si ya se han copiado.
+ * Al actualizarlo sólo se vuelven a leer las carpetas cuya fecha de modificación ha cambiado,
+ * que es cuando se crea, borra o renombra algo en ellas. Un archivo que se modifica sin cambiar
+ * de nombre no cambia la fecha de la carpeta, así que el índice sólo sirve para mostrar los orígenes;
+ * la copia siempre lee los archivos del disco.
+ */
+public class MediaIndex {
+
+    public static final String FILE_NAME = "media_index";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String HEADER = "copit-media-index\t1";
+    private static final String FOLDER = "folder";
+    private static final String FOOTER = "end\t";
+    private static final String SEPARATOR = "\t";
+    private static final String DIRECTORY = "d";
+    private static final String FILE = "f";
+    private static final String BACKED_UP = "1";
+    private static final String PENDING = "0";
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * La fecha de las carpetas puede tener una precisión de sólo 2 segundos (FAT). Si la carpeta
+     * ha cambiado hace menos que eso, lo que se cree en ella justo después de leerla podría no cambiar
+     * su fecha, así que se vuelve a leer en la siguiente actualización.
+     */
+    private static final long RACY_WINDOW = 2000;
+    private static final long UNKNOWN = -1;
+
+    private final File file;
+    private final TreeWalker walker;
+    private final Map<String, Folder> folders = new HashMap<>();
+    private final Object saveLock = new Object();
+
+    private boolean loaded;
+    private boolean changed;
+
+
+    private MediaIndex(File file, TreeWalker walker) {
+        this.file = file;
+        this.walker = walker;
+    }
+
+
+    /**
+     * Obtiene el índice guardado en el archivo indicado. El archivo no se lee hasta la primera
+     * consulta, así que se puede obtener en el hilo principal siempre que se consulte en segundo plano.
+     * Si no existe o está dañado se empieza uno vacío, que se completará en la primera actualización.
+     */
+    public static MediaIndex load(File file, TreeWalker walker) {
+
+        return new MediaIndex(file, walker);
+    }
+
+
+    /**
+     * Lee el archivo del índice la primera vez que hace falta. Se llama con el índice bloqueado.
+     */
+    private void ensureLoaded() {
+
+        if (loaded) {
+            return;
+        }
+
+        loaded = true;
+
+        try {
+
+            read();
+
+        } catch (IOException e) {
+
+            folders.clear();
+        }
+    }
+
+
+    /**
+     * Actualiza el contenido de las carpetas indicadas y sus subcarpetas,
+     * leyendo sólo las que han cambiado desde la última vez
+     */
+    public void refresh(List<File> roots) {
+        refresh(roots, new CancellationToken());
+    }
+
+
+    /**
+     * Actualiza el contenido de las carpetas indicadas hasta que se pida cancelar.
+     * Devuelve false si se ha cancelado; lo actualizado hasta entonces se mantiene.
+     * Las carpetas se leen del disco sin bloquear el índice, que se puede seguir consultando.
+     */
+    public boolean refresh(List<File> roots, CancellationToken cancellation) {
+
+        for (File root : roots) {
+            if (!refresh(root, System.currentTimeMillis(), cancellation)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private boolean refresh(File directory, long now, CancellationToken cancellation) {
+
+        if (cancellation.isCancelled()) {
+            return false;
+        }
+
+        String key = directory.getAbsolutePath();
+        long lastModified = directory.lastModified();
+
+        if (lastModified == 0) {
+
+            // La carpeta ya no existe
+
+            removeFolder(key);
+
+            return true;
+        }
+
+        Folder folder = getFolder(key);
+
+        if (folder == null || folder.lastModified != lastModified) {
+
+            List<FileEntry> entries = walker.list(directory);
+
+            folder = replaceFolder(key, new Folder(now - lastModified < RACY_WINDOW ? UNKNOWN : lastModified, entries));
+        }
+
+        for (FileEntry entry : folder.entries) {
+            if (entry.directory && !refresh(entry.file, now, cancellation)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private synchronized Folder getFolder(String key) {
+
+        ensureLoaded();
+
+        return folders.get(key);
+    }
+
+
+    /**
+     * Sustituye una carpeta por su contenido recién leído, manteniendo lo que ya estaba copiado
+     * según la versión que haya en ese momento en el índice
+     */
+    private synchronized Folder replaceFolder(String key, Folder updated) {
+
+        Folder folder = folders.get(key);
+
+        if (folder != null) {
+            updated.keepBackedUp(folder);
+            removeMissingFolders(folder, updated);
+        }
+
+        folders.put(key, updated);
+        changed = true;
+
+        return updated;
+    }
+
+
+    private synchronized void removeFolder(String key) {
+
+        ensureLoaded();
+
+        Folder folder = folders.get(key);
+
+        if (folder != null) {
+            remove(key, folder);
+        }
+    }
+
+
+    /**
+     * Quita del índice las subcarpetas que ya no están en la carpeta actualizada
+     */
+    private void removeMissingFolders(Folder folder, Folder updated) {
+
+        Set<String> names = new HashSet<>();
+
+        for (FileEntry entry : updated.entries) {
+            if (entry.directory) {
+                names.add(entry.getName());
+            }
+        }
+
+        for (FileEntry entry : folder.entries) {
+
+            if (entry.directory && !names.contains(entry.getName())) {
+
+                String key = entry.file.getAbsolutePath();
+                Folder missing = folders.get(key);
+
+                if (missing != null) {
+                    remove(key, missing);
+                }
+            }
+        }
+    }
+
+
+    private void remove(String key, Folder folder) {
+
+        folders.remove(key);
+        changed = true;
+
+        for (FileEntry entry : folder.entries) {
+
+            if (entry.directory) {
+
+                String childKey = entry.file.getAbsolutePath();
+                Folder child = folders.get(childKey);
+
+                if (child != null) {
+                    remove(childKey, child);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Obtiene el contenido de una carpeta según el índice. Si no está en el índice se lee del disco.
+     */
+    public List<FileEntry> list(File directory) {
+
+        Folder folder;
+
+        synchronized (this) {
+            ensureLoaded();
+            folder = folders.get(directory.getAbsolutePath());
+        }
+
+        return (folder != null) ? folder.entries : walker.list(directory);
+    }
+
+
+    /**
+     * Obtiene un recorredor de carpetas que consulta el índice en lugar del disco
+     */
+    public TreeWalker getWalker() {
+
+        return new TreeWalker() {
+            @Override
+            public List<FileEntry> list(File directory) {
+                return MediaIndex.this.list(directory);
+            }
+        };
+    }
+
+
+    /**
+     * Comprueba si el archivo indicado ya está copiado, tal y como está ahora en el índice
+     */
+    public synchronized boolean isBackedUp(File file) {
+
+        ensureLoaded();
+
+        Folder folder = folders.get(file.getParentFile().getAbsolutePath());
+
+        return folder != null && folder.backedUp.contains(file.getName());
+    }
+
+
+    /**
+     * Obtiene los archivos de las carpetas indicadas tal y como están ahora en el índice
+     */
+    public synchronized List<FileEntry> getFiles(List<File> roots) {
+
+        ensureLoaded();
+
+        List<FileEntry> files = new ArrayList<>();
+
+        for (File root : roots) {
+
+            String prefix = root.getAbsolutePath();
+
+            for (Map.Entry<String, Folder> item : folders.entrySet()) {
+
+                if (!isInside(item.getKey(), prefix)) {
+                    continue;
+                }
+
+                for (FileEntry entry : item.getValue().entries) {
+                    if (!entry.directory) {
+                        files.add(entry);
+                    }
+                }
+            }
+        }
+
+        return files;
+    }
+
+
+    /**
+     * Anota como copiados los archivos indicados, salvo los que se indican en except.
+     * Un archivo sólo se anota si sigue igual en el índice: lo que aparezca o cambie
+     * después de obtener la lista no se ha copiado.
+     */
+    public synchronized void markBackedUp(Collection<FileEntry> files, Collection<File> except) {
+
+        ensureLoaded();
+
+        Set<File> excluded = new HashSet<>(except);
+
+        for (FileEntry file : files) {
+
+            if (excluded.contains(file.file)) {
+                continue;
+            }
+
+            Folder folder = folders.get(file.file.getParentFile().getAbsolutePath());
+
+            if (folder != null && folder.contains(file) && folder.backedUp.add(file.getName())) {
+                changed = true;
+            }
+        }
+    }
+
+
+    /**
+     * Cuenta los archivos de las carpetas indicadas y los que faltan por copiar
+     */
+    public synchronized Counts count(List<File> roots) {
+
+        ensureLoaded();
+
+        int files = 0;
+        int pending = 0;
+
+        for (File root : roots) {
+
+            String prefix = root.getAbsolutePath();
+
+            for (Map.Entry<String, Folder> item : folders.entrySet()) {
+
+                if (!isInside(item.getKey(), prefix)) {
+                    continue;
+                }
+
+                Folder folder = item.getValue();
+
+                for (FileEntry entry : folder.entries) {
+                    if (!entry.directory) {
+                        files++;
+                        if (!folder.backedUp.contains(entry.getName())) {
+                            pending++;
+                        }
+                    }
+                }
+            }
+        }
+
+        return new Counts(files, pending);
+    }
+
+
+    private static boolean isInside(String path, String prefix) {
+        return path.equals(prefix) || path.startsWith(prefix + File.separator);
+    }
+
+
+    /**
+     * Guarda el índice si ha cambiado. Se escribe una copia del contenido para no bloquear
+     * el índice mientras tanto.
+     */
+    public void save() throws IOException {
+
+        synchronized (saveLock) {
+
+            Map<String, Folder> saved = new HashMap<>();
+
+            synchronized (this) {
+
+                if (!changed) {
+                    return;
+                }
+
+                for (Map.Entry<String, Folder> item : folders.entrySet()) {
+                    saved.put(item.getKey(), item.getValue().copy());
+                }
+
+                changed = false;
+            }
+
+            try {
+
+                write(saved);
+
+            } catch (IOException e) {
+
+                synchronized (this) {
+                    changed = true;
+                }
+
+                throw e;
+            }
+        }
+    }
+
+
+    /**
+     * Escribe las carpetas indicadas. Primero se escribe en un archivo temporal que
+     * luego sustituye al anterior para no dejarlo nunca a medias.
+     */
+    private void write(Map<String, Folder> folders) throws IOException {
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+
+        FileOutputStream output = null;
+
+        try {
+
+            output = new FileOutputStream(temp);
+
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, ENCODING));
+
+            writer.write(HEADER);
+            writer.newLine();
+
+            for (Map.Entry<String, Folder> item : folders.entrySet()) {
+
+                Folder folder = item.getValue();
+
+                writer.write(FOLDER + SEPARATOR + folder.lastModified + SEPARATOR + folder.entries.size() + SEPARATOR + item.getKey());
+                writer.newLine();
+
+                for (FileEntry entry : folder.entries) {
+                    writer.write((entry.directory ? DIRECTORY : FILE) + SEPARATOR +
+                            entry.length + SEPARATOR +
+                            entry.lastModified + SEPARATOR +
+                            (folder.backedUp.contains(entry.getName()) ? BACKED_UP : PENDING) + SEPARATOR +
+                            entry.getName());
+                    writer.newLine();
+                }
+            }
+
+            writer.write(FOOTER + folders.size());
+            writer.newLine();
+            writer.flush();
+
+            output.getFD().sync();
+            output.close();
+
+        } finally {
+
+            IOUtils.closeQuietly(output);
+        }
+
+        if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+
+    /**
+     * Lee el índice guardado en disco
+     */
+    private void read() throws IOException {
+
+        if (!file.isFile()) {
+            throw new IOException("Missing " + file);
+        }
+
+        BufferedReader reader = null;
+
+        try {
+
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unknown format " + file);
+            }
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.startsWith(FOOTER)) {
+
+                    if (Integer.parseInt(line.substring(FOOTER.length())) != folders.size()) {
+                        throw new IOException("Truncated " + file);
+                    }
+
+                    return;
+                }
+
+                String[] fields = line.split(SEPARATOR, 4);
+
+                if (fields.length != 4 || !FOLDER.equals(fields[0])) {
+                    throw new IOException("Corrupt " + file);
+                }
+
+                File directory = new File(fields[3]);
+                int count = Integer.parseInt(fields[2]);
+
+                List<FileEntry> entries = new ArrayList<>(count);
+                Set<String> backedUp = new HashSet<>();
+
+                for (int i = 0; i < count; i++) {
+
+                    String[] entry = readEntry(reader);
+
+                    entries.add(new FileEntry(new File(directory, entry[4]), DIRECTORY.equals(entry[0]),
+                            Long.parseLong(entry[1]), Long.parseLong(entry[2])));
+
+                    if (BACKED_UP.equals(entry[3])) {
+                        backedUp.add(entry[4]);
+                    }
+                }
+
+                Folder folder = new Folder(Long.parseLong(fields[1]), entries);
+                folder.backedUp.addAll(backedUp);
+
+                folders.put(fields[3], folder);
+            }
+
+            throw new IOException("Truncated " + file);
+
+        } catch (NumberFormatException e) {
+
+            throw new IOException("Corrupt " + file);
+
+        } finally {
+
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+
+    private String[] readEntry(BufferedReader reader) throws IOException {
+
+        String line = reader.readLine();
+
+        if (line == null) {
+            throw new IOException("Truncated " + file);
+        }
+
+        String[] fields = line.split(SEPARATOR, 5);
+
+        if (fields.length != 5) {
+            throw new IOException("Corrupt " + file);
+        }
+
+        return fields;
+    }
+
+
+    /**
+     * Número de archivos de unas carpetas y cuántos faltan por copiar
+     */
+    public static class Counts {
+
+        public final int files;
+        public final int pending;
+
+        Counts(int files, int pending) {
+            this.files = files;
+            this.pending = pending;
+        }
+    }
+
+
+    /**
+     * Contenido de una carpeta tal y como estaba cuando tenía la fecha de modificación indicada,
+     * con los nombres de los archivos que ya están copiados
+     */
+    private static class Folder {
+
+        final long lastModified;
+        final List<FileEntry> entries;
+        final Set<String> backedUp = new HashSet<>();
+
+        Folder(long lastModified, List<FileEntry> entries) {
+            this.lastModified = lastModified;
+            this.entries = Collections.unmodifiableList(entries);
+        }
+
+
+        Folder copy() {
+
+            Folder copy = new Folder(lastModified, entries);
+            copy.backedUp.addAll(backedUp);
+
+            return copy;
+        }
+
+
+        /**
+         * Comprueba si la carpeta tiene el archivo indicado con el mismo tamaño y fecha
+         */
+        boolean contains(FileEntry file) {
+
+            for (FileEntry entry : entries) {
+                if (entry.getName().equals(file.getName())) {
+                    return !entry.directory && entry.length == file.length && entry.lastModified == file.lastModified;
+                }
+            }
+
+            return false;
+        }
+
+
+        /**
+         * Mantiene como copiados los archivos que no han cambiado desde la versión anterior de la carpeta
+         */
+        void keepBackedUp(Folder previous) {
+
+            Map<String, FileEntry> previousEntries = new HashMap<>();
+
+            for (FileEntry entry : previous.entries) {
+                previousEntries.put(entry.getName(), entry);
+            }
+
+            for (FileEntry entry : entries) {
+
+                FileEntry old = previousEntries.get(entry.getName());
+
+                if (old != null && previous.backedUp.contains(entry.getName())
+                        && old.length == entry.length && old.lastModified == entry.lastModified) {
+                    backedUp.add(entry.getName());
+                }
+            }
+        }
+    }
+}
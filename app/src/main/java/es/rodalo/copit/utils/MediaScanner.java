@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recorre los orígenes en segundo plano y entrega el resultado por partes en el hilo indicado:
+ * primero los contadores, que se actualizan tras cada carpeta, y después las imágenes.
+ * Cada recorrido nuevo cancela el anterior, y si se piden varios seguidos sólo se hace el último.
+ */
+public class MediaScanner {
+
+    /**
+     * Tiempo que se espera antes de recorrer si se acaba de pedir otro recorrido
+     */
+    static final long DEBOUNCE_MILLIS = 300;
+
+    private final MediaIndex index;
+    private final ScheduledExecutorService executor;
+    private final Executor callbackExecutor;
+
+    private ScheduledFuture<?> pending;
+    private CancellationToken cancellation = new CancellationToken();
+    private long lastRequest;
+
+
+    /**
+     * Crea un recorredor que trabaja con el ejecutor indicado y entrega los resultados en callbackExecutor
+     * (normalmente el hilo principal)
+     */
+    public MediaScanner(MediaIndex index, ScheduledExecutorService executor, Executor callbackExecutor) {
+        this.index = index;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+
+    /**
+     * Pide recorrer las carpetas indicadas, cancelando el recorrido anterior si no ha terminado
+     */
+    public synchronized void scan(final List<File> paths, final Listener listener) {
+
+        cancel();
+
+        final CancellationToken token = new CancellationToken();
+
+        long now = System.currentTimeMillis();
+        long delay = (now - lastRequest < DEBOUNCE_MILLIS) ? DEBOUNCE_MILLIS : 0;
+
+        cancellation = token;
+        lastRequest = now;
+
+        pending = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                doScan(new ArrayList<>(paths), listener, token);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Cancela el recorrido en marcha o pendiente. Después de llamarlo desde el hilo
+     * de los resultados ya no se entrega ninguno más.
+     */
+    public synchronized void cancel() {
+
+        cancellation.cancel();
+
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+
+    private void doScan(List<File> paths, final Listener listener, final CancellationToken token) {
+
+        if (!index.refresh(paths, token)) {
+            return;
+        }
+
+        try {
+
+            index.save();
+
+        } catch (IOException ignore) {
+
+            // Si no se puede guardar, la próxima vez se vuelven a leer las carpetas
+        }
+
+        MediaSnapshot snapshot = new MediaSnapshot();
+        TreeWalker walker = index.getWalker();
+
+        for (File path : paths) {
+
+            if (token.isCancelled()) {
+                return;
+            }
+
+            snapshot.scan(path, walker);
+
+            deliverCounts(snapshot, listener, token);
+        }
+
+        if (paths.isEmpty()) {
+            deliverCounts(snapshot, listener, token);
+        }
+
+        final RecentImages images = snapshot.getRecentImages();
+
+        deliver(token, new Runnable() {
+            @Override
+            public void run() {
+                listener.onImages(images);
+            }
+        });
+    }
+
+
+    private void deliverCounts(MediaSnapshot snapshot, final Listener listener, CancellationToken token) {
+
+        final int imageCount = snapshot.getImageCount();
+        final int videoCount = snapshot.getVideoCount();
+
+        deliver(token, new Runnable() {
+            @Override
+            public void run() {
+                listener.onCounts(imageCount, videoCount);
+            }
+        });
+    }
+
+
+    /**
+     * Entrega un resultado en el hilo de los resultados, salvo que se cancele antes de llegar
+     */
+    private void deliver(final CancellationToken token, final Runnable result) {
+
+        if (token.isCancelled()) {
+            return;
+        }
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!token.isCancelled()) {
+                    result.run();
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Recibe los resultados del recorrido
+     */
+    public interface Listener {
+
+        /**
+         * Número de imágenes y vídeos encontrados hasta ahora
+         */
+        void onCounts(int imageCount, int videoCount);
+
+        /**
+         * Imágenes de todos los orígenes, las más recientes primero
+         */
+        void onImages(RecentImages images);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contenido multimedia de los orígenes, obtenido con un único recorrido de cada carpeta:
+ * cuántas imágenes y vídeos hay y qué imágenes son las más recientes
+ */
+public class MediaSnapshot {
+
+    private final List<List<FileEntry>> imagesBySource = new ArrayList<>();
+    private int imageCount;
+    private int videoCount;
+
+
+    /**
+     * Recorre las carpetas indicadas clasificando los archivos en imágenes y vídeos
+     */
+    public static MediaSnapshot scan(List<File> paths, TreeWalker walker) {
+
+        MediaSnapshot snapshot = new MediaSnapshot();
+
+        for (File path : paths) {
+            snapshot.scan(path, walker);
+        }
+
+        return snapshot;
+    }
+
+
+    /**
+     * Añade los archivos de la carpeta indicada y sus subcarpetas
+     */
+    public void scan(File directory, TreeWalker walker) {
+
+        List<FileEntry> images = new ArrayList<>();
+
+        scan(directory, walker, images);
+
+        imagesBySource.add(images);
+        imageCount += images.size();
+    }
+
+
+    private void scan(File directory, TreeWalker walker, List<FileEntry> images) {
+
+        for (FileEntry entry : walker.list(directory)) {
+
+            if (entry.directory) {
+                scan(entry.file, walker, images);
+                continue;
+            }
+
+            Files.MediaType type = Files.getMediaType(entry.getName());
+
+            if (type == Files.MediaType.IMAGE) {
+                images.add(entry);
+            } else if (type == Files.MediaType.VIDEO) {
+                videoCount++;
+            }
+        }
+    }
+
+
+    public int getImageCount() {
+        return imageCount;
+    }
+
+
+    public int getVideoCount() {
+        return videoCount;
+    }
+
+
+    /**
+     * Obtiene las imágenes de la más reciente a la más antigua, para leerlas por páginas
+     */
+    public RecentImages getRecentImages() {
+        return new RecentImages(imagesBySource);
+    }
+}
@@ -56,6 +56,22 @@ public class Message {
     }
 
 
+    /**
+     * Muestra un mensaje de error con un botón para resolverlo, que se mantiene hasta que se pulsa
+     */
+    public static void error(View view, String text, String action, View.OnClickListener listener) {
+
+        Snackbar snackbar = Snackbar.make(view, text, Snackbar.LENGTH_INDEFINITE);
+
+        snackbar.getView().setBackgroundColor(ContextCompat.getColor(view.getContext(), Types.ERROR.color));
+
+        snackbar.setAction(action, listener);
+        snackbar.setActionTextColor(ContextCompat.getColor(view.getContext(), android.R.color.white));
+
+        snackbar.show();
+    }
+
+
     /**
      * Muestra un mensaje de éxito
      */
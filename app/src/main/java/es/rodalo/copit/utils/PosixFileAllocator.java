@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.FileDescriptor;
+
+/**
+ * Reserva espacio con posix_fallocate, disponible desde Android 5.0
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PosixFileAllocator implements FileAllocator {
+
+
+    /**
+     * Obtiene el reservador de espacio del dispositivo, o null si la versión de Android no lo permite
+     */
+    public static FileAllocator create() {
+
+        return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) ? new PosixFileAllocator() : null;
+    }
+
+
+    @Override
+    public boolean allocate(FileDescriptor fd, long size) {
+
+        try {
+
+            Os.posix_fallocate(fd, 0, size);
+
+            return true;
+
+        } catch (ErrnoException e) {
+
+            // EOPNOTSUPP...: el sistema de archivos (FUSE, sdcardfs, FAT) no lo admite. A diferencia
+            // de glibc, Android no lo emula escribiendo ceros, así que intentarlo no cuesta nada
+
+            return false;
+        }
+    }
+}
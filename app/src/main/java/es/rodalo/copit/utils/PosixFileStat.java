@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import java.io.File;
+
+/**
+ * Lee los atributos de un archivo con una única llamada a stat, disponible desde Android 5.0
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PosixFileStat implements FileStat {
+
+    /**
+     * Versión de Android (8.0) desde la que File.lastModified devuelve milisegundos en vez de segundos
+     */
+    private static final int MILLIS_PRECISION_SDK = 26;
+
+    private final boolean millisPrecision = Build.VERSION.SDK_INT >= MILLIS_PRECISION_SDK;
+
+
+    /**
+     * Obtiene el lector de atributos del dispositivo, o null si la versión de Android no lo permite
+     */
+    public static FileStat create() {
+
+        return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) ? new PosixFileStat() : null;
+    }
+
+
+    @Override
+    public FileEntry stat(File file) {
+
+        StructStat stat;
+
+        try {
+
+            stat = Os.stat(file.getPath());
+
+        } catch (ErrnoException e) {
+
+            return null;
+        }
+
+        if (OsConstants.S_ISDIR(stat.st_mode)) {
+            return new FileEntry(file, true, 0, 0);
+        }
+
+        return new FileEntry(file, false, stat.st_size, getLastModified(file, stat));
+    }
+
+
+    /**
+     * st_mtime sólo tiene segundos. Las fechas tienen que coincidir con las de java.io (se guardan
+     * en el manifiesto y se comparan con las del destino), así que en las versiones en las que
+     * File.lastModified devuelve milisegundos se lee la fecha con java.io.
+     */
+    private long getLastModified(File file, StructStat stat) {
+
+        return millisPrecision ? file.lastModified() : stat.st_mtime * 1000L;
+    }
+}
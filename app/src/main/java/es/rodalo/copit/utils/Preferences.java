@@ -37,6 +37,23 @@ public class Preferences {
     public static final String PREF_BACKUP_FOLDER_NAME = "PREF_DEST_BACKUP_FOLDER_NAME";
     private static final String PREF_LAST_TIME = "PREF_LAST_TIME";
     private static final String PREF_VERSION = "PREF_VERSION";
+    public static final String PREF_COPY_WORKERS = "PREF_COPY_WORKERS";
+    public static final String PREF_DEDUPLICATE = "PREF_DEDUPLICATE";
+    public static final String PREF_NEWEST_FIRST = "PREF_NEWEST_FIRST";
+    public static final String PREF_SNAPSHOTS = "PREF_SNAPSHOTS";
+    public static final String PREF_SNAPSHOT_RETENTION = "PREF_SNAPSHOT_RETENTION";
+    public static final String PREF_DELTA_SYNC = "PREF_DELTA_SYNC";
+    public static final String PREF_CONTINUE_ON_ERROR = "PREF_CONTINUE_ON_ERROR";
+    public static final String PREF_THROTTLE_RATE = "PREF_THROTTLE_RATE";
+    public static final String PREF_THROTTLE_BURST = "PREF_THROTTLE_BURST";
+    public static final String PREF_THROTTLE_ADAPTIVE = "PREF_THROTTLE_ADAPTIVE";
+
+    private static final String DEFAULT_COPY_WORKERS = "2";
+    private static final String DEFAULT_SNAPSHOT_RETENTION = "10";
+    private static final String DEFAULT_THROTTLE_RATE = "0";
+    private static final String DEFAULT_THROTTLE_BURST = "8";
+
+    private static final long MEGABYTE = 1024 * 1024;
 
 
     public static SharedPreferences getSharedPreferences() {
@@ -75,6 +92,124 @@ public class Preferences {
     }
 
 
+    /**
+     * Obtiene el número de archivos que se pueden copiar a la vez (1 para copiar de uno en uno)
+     */
+    public static int getCopyWorkers() {
+
+        String workers = getSharedPreferences().getString(PREF_COPY_WORKERS, DEFAULT_COPY_WORKERS);
+
+        try {
+
+            return Math.max(CopyEngine.SEQUENTIAL, Integer.parseInt(workers));
+
+        } catch (NumberFormatException ignore) {
+
+            return Integer.parseInt(DEFAULT_COPY_WORKERS);
+        }
+    }
+
+
+    /**
+     * Indica si los archivos con el mismo contenido se deben guardar una única vez
+     */
+    public static boolean isDeduplicateEnabled() {
+        return getSharedPreferences().getBoolean(PREF_DEDUPLICATE, false);
+    }
+
+
+    /**
+     * Indica si se deben copiar primero los archivos más recientes
+     */
+    public static boolean isNewestFirstEnabled() {
+        return getSharedPreferences().getBoolean(PREF_NEWEST_FIRST, false);
+    }
+
+
+    /**
+     * Indica si cada copia se debe guardar en una carpeta fechada, conservando las anteriores
+     */
+    public static boolean isSnapshotsEnabled() {
+        return getSharedPreferences().getBoolean(PREF_SNAPSHOTS, false);
+    }
+
+
+    /**
+     * Obtiene el número de copias fechadas que se conservan
+     */
+    public static int getSnapshotRetention() {
+
+        String retention = getSharedPreferences().getString(PREF_SNAPSHOT_RETENTION, DEFAULT_SNAPSHOT_RETENTION);
+
+        try {
+
+            return Math.max(1, Integer.parseInt(retention));
+
+        } catch (NumberFormatException ignore) {
+
+            return Integer.parseInt(DEFAULT_SNAPSHOT_RETENTION);
+        }
+    }
+
+
+    /**
+     * Indica si los vídeos que han cambiado se deben actualizar reescribiendo sólo lo que es distinto
+     */
+    public static boolean isDeltaSyncEnabled() {
+        return getSharedPreferences().getBoolean(PREF_DELTA_SYNC, false);
+    }
+
+
+    /**
+     * Indica si la copia debe seguir con el resto de archivos cuando uno no se puede copiar
+     */
+    public static boolean isContinueOnErrorEnabled() {
+        return getSharedPreferences().getBoolean(PREF_CONTINUE_ON_ERROR, false);
+    }
+
+
+    /**
+     * Obtiene la velocidad máxima de copia en bytes por segundo (0 si no hay límite)
+     */
+    public static long getThrottleRate() {
+        return getMegabytes(PREF_THROTTLE_RATE, DEFAULT_THROTTLE_RATE);
+    }
+
+
+    /**
+     * Obtiene los bytes que se pueden copiar de golpe, sin respetar la velocidad máxima
+     */
+    public static long getThrottleBurst() {
+        return getMegabytes(PREF_THROTTLE_BURST, DEFAULT_THROTTLE_BURST);
+    }
+
+
+    /**
+     * Indica si la copia debe ir más despacio cuando otras aplicaciones usan el almacenamiento
+     */
+    public static boolean isThrottleAdaptiveEnabled() {
+        return getSharedPreferences().getBoolean(PREF_THROTTLE_ADAPTIVE, false);
+    }
+
+
+    /**
+     * Obtiene el tamaño guardado en megas en una preferencia de lista, en bytes
+     */
+    private static long getMegabytes(String key, String defaultValue) {
+
+        String megabytes = getSharedPreferences().getString(key, defaultValue);
+
+        try {
+
+            return Math.max(0, Long.parseLong(megabytes)) * MEGABYTE;
+
+        } catch (NumberFormatException ignore) {
+
+            return Long.parseLong(defaultValue) * MEGABYTE;
+        }
+    }
+
+
     /**
      * Obtiene la fecha de la última copia correcta
      */
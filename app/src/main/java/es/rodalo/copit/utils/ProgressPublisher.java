@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+/**
+ * Agrupa los avisos de progreso para no saturar a quien los recibe.
+ *
+ * Sólo deja pasar un aviso cada cierto tiempo, y únicamente si el progreso ha cambiado
+ * lo suficiente desde el último. El aviso final de la copia se entrega siempre.
+ */
+public class ProgressPublisher implements Files.CopyProgressCallback {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 200;
+
+    private static final long BYTES_DELTA_DIVISOR = 1000;
+
+    private final Files.CopyProgressCallback delegate;
+    private final long intervalNanos;
+
+    private CopyProgress lastPublished;
+    private long lastPublishedTime;
+
+
+    public ProgressPublisher(Files.CopyProgressCallback delegate) {
+        this(delegate, DEFAULT_INTERVAL_MILLIS);
+    }
+
+
+    public ProgressPublisher(Files.CopyProgressCallback delegate, long intervalMillis) {
+        this.delegate = delegate;
+        this.intervalNanos = intervalMillis * 1000 * 1000;
+    }
+
+
+    @Override
+    public void onProgress(CopyProgress progress) {
+
+        long now = System.nanoTime();
+
+        if (progress.isComplete()) {
+
+            if (!isSame(progress, lastPublished)) {
+                publish(progress, now);
+            }
+
+            return;
+        }
+
+        if (lastPublished != null && now - lastPublishedTime < intervalNanos) {
+            return;
+        }
+
+        if (hasChanged(progress)) {
+            publish(progress, now);
+        }
+    }
+
+
+    /**
+     * Entrega el aviso indicado
+     */
+    private void publish(CopyProgress progress, long now) {
+
+        lastPublished = progress;
+        lastPublishedTime = now;
+
+        delegate.onProgress(progress);
+    }
+
+
+    /**
+     * Comprueba si el progreso ha cambiado lo suficiente desde el último aviso:
+     * algún archivo más o, al menos, una milésima parte de los bytes
+     */
+    private boolean hasChanged(CopyProgress progress) {
+
+        if (lastPublished == null || progress.files != lastPublished.files) {
+            return true;
+        }
+
+        long minDelta = Math.max(1, progress.totalBytes / BYTES_DELTA_DIVISOR);
+
+        return progress.bytes - lastPublished.bytes >= minDelta;
+    }
+
+
+    /**
+     * Comprueba si dos avisos corresponden al mismo estado
+     */
+    private static boolean isSame(CopyProgress progress, CopyProgress other) {
+
+        return other != null &&
+                progress.files == other.files &&
+                progress.totalFiles == other.totalFiles &&
+                progress.bytes == other.bytes;
+    }
+}
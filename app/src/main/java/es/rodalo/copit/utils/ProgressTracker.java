@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+/**
+ * Lleva la cuenta de los archivos y bytes copiados y estima el tiempo restante
+ * a partir de una media móvil exponencial de la velocidad de copia.
+ * Se puede actualizar desde varios hilos a la vez.
+ */
+class ProgressTracker {
+
+    private static final long SAMPLE_INTERVAL_NANOS = 500 * 1000 * 1000L;
+    private static final double SMOOTHING = 0.3;
+
+    private final int totalFiles;
+    private final long totalBytes;
+
+    private int files;
+    private long bytes;
+
+    private long sampleTime;
+    private long sampleBytes;
+    private double bytesPerSecond = -1;
+
+
+    ProgressTracker(CopyPlan plan) {
+        this.totalFiles = plan.getPendingFiles();
+        this.totalBytes = plan.getPendingBytes();
+        this.sampleTime = System.nanoTime();
+    }
+
+
+    /**
+     * Suma los bytes copiados. El progreso nunca retrocede, así que se ignoran las cantidades negativas.
+     */
+    synchronized void addBytes(long count) {
+
+        if (count > 0) {
+            bytes += count;
+        }
+    }
+
+
+    /**
+     * Anota un archivo terminado
+     */
+    synchronized void addFile() {
+        files += 1;
+    }
+
+
+    /**
+     * Obtiene el estado actual actualizando la estimación de velocidad
+     */
+    synchronized CopyProgress snapshot() {
+
+        long now = System.nanoTime();
+        long elapsed = now - sampleTime;
+
+        if (elapsed >= SAMPLE_INTERVAL_NANOS) {
+
+            double rate = (bytes - sampleBytes) * 1e9 / elapsed;
+
+            bytesPerSecond = (bytesPerSecond < 0) ? rate : SMOOTHING * rate + (1 - SMOOTHING) * bytesPerSecond;
+
+            sampleTime = now;
+            sampleBytes = bytes;
+        }
+
+        long remaining = CopyProgress.UNKNOWN;
+
+        if (files >= totalFiles) {
+            remaining = 0;
+        } else if (bytesPerSecond > 0) {
+            remaining = (long) (Math.max(0, totalBytes - bytes) * 1000 / bytesPerSecond);
+        }
+
+        return new CopyProgress(files, totalFiles, bytes, totalBytes, (long) Math.max(bytesPerSecond, 0), remaining);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Imágenes de varios orígenes de la más reciente a la más antigua, por páginas.
+ * Para cada página sólo se seleccionan las N siguientes de cada origen con un montículo
+ * de tamaño N y se mezclan los orígenes, sin ordenar nunca todas las imágenes.
+ * Las fechas son las leídas al recorrer las carpetas, no se vuelven a consultar.
+ */
+public class RecentImages {
+
+    /**
+     * Orden de las imágenes: las más recientes primero y, con la misma fecha, por ruta,
+     * para que cada página continúe exactamente donde terminó la anterior
+     */
+    private static final Comparator<FileEntry> recencyComparator = new Comparator<FileEntry>() {
+        @Override
+        public int compare(FileEntry entry1, FileEntry entry2) {
+            int result = FileEntry.lastModifiedComparator.compare(entry1, entry2);
+            return (result != 0) ? result : entry1.file.getPath().compareTo(entry2.file.getPath());
+        }
+    };
+
+    private final List<List<FileEntry>> sources;
+
+    private FileEntry last;
+    private boolean hasMore;
+
+
+    /**
+     * Crea la selección a partir de las imágenes de cada origen, en cualquier orden
+     */
+    public RecentImages(List<List<FileEntry>> sources) {
+
+        this.sources = sources;
+
+        for (List<FileEntry> source : sources) {
+            hasMore |= !source.isEmpty();
+        }
+    }
+
+
+    /**
+     * Indica si quedan imágenes por entregar
+     */
+    public synchronized boolean hasMore() {
+        return hasMore;
+    }
+
+
+    /**
+     * Obtiene las siguientes imágenes, como mucho las indicadas
+     */
+    public synchronized List<File> nextPage(int count) {
+
+        List<File> page = new ArrayList<>(count);
+
+        if (!hasMore || count <= 0) {
+            return page;
+        }
+
+        List<List<FileEntry>> selected = new ArrayList<>(sources.size());
+
+        for (List<FileEntry> source : sources) {
+            selected.add(selectNext(source, last, count));
+        }
+
+        for (FileEntry entry : merge(selected, count)) {
+            page.add(entry.file);
+            last = entry;
+        }
+
+        hasMore = page.size() == count;
+
+        return page;
+    }
+
+
+    /**
+     * Selecciona las imágenes que van después de la indicada (o desde el principio si es null),
+     * ordenadas, guardando en el montículo sólo las que pueden entrar en la página
+     */
+    static List<FileEntry> selectNext(List<FileEntry> entries, FileEntry after, int count) {
+
+        // La cabeza del montículo es la peor de las seleccionadas, la primera en salir si llega otra mejor
+
+        PriorityQueue<FileEntry> heap = new PriorityQueue<>(count, Collections.reverseOrder(recencyComparator));
+
+        for (FileEntry entry : entries) {
+
+            if (after != null && recencyComparator.compare(entry, after) <= 0) {
+                continue;
+            }
+
+            if (heap.size() < count) {
+                heap.add(entry);
+            } else if (recencyComparator.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+
+        List<FileEntry> selected = new ArrayList<>(heap);
+
+        Collections.sort(selected, recencyComparator);
+
+        return selected;
+    }
+
+
+    /**
+     * Mezcla listas ya ordenadas quedándose con las primeras
+     */
+    private static List<FileEntry> merge(final List<List<FileEntry>> lists, int count) {
+
+        // Cada elemento es {lista, posición}, ordenados por la imagen a la que apuntan
+
+        PriorityQueue<int[]> cursors = new PriorityQueue<>(Math.max(1, lists.size()), new Comparator<int[]>() {
+            @Override
+            public int compare(int[] cursor1, int[] cursor2) {
+                return recencyComparator.compare(lists.get(cursor1[0]).get(cursor1[1]), lists.get(cursor2[0]).get(cursor2[1]));
+            }
+        });
+
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty()) {
+                cursors.add(new int[]{i, 0});
+            }
+        }
+
+        List<FileEntry> merged = new ArrayList<>(count);
+
+        while (merged.size() < count && !cursors.isEmpty()) {
+
+            int[] cursor = cursors.poll();
+            List<FileEntry> list = lists.get(cursor[0]);
+
+            merged.add(list.get(cursor[1]));
+
+            if (cursor[1] + 1 < list.size()) {
+                cursors.add(new int[]{cursor[0], cursor[1] + 1});
+            }
+        }
+
+        return merged;
+    }
+}
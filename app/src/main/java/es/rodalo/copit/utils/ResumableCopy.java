@@ -0,0 +1,304 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package es.rodalo.copit.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+import es.rodalo.copit.utils.copy.CopyStrategies;
+import es.rodalo.copit.utils.copy.CopyStrategy;
+
+/**
+ * Copia de un archivo que se puede continuar si se interrumpe.
+ *
+ * Los datos se escriben en un archivo parcial junto al destino y, después de cada bloque,
+ * se guarda en un archivo de control hasta dónde se ha copiado. La siguiente vez se comprueba
+ * que el principio y el final de lo ya copiado coinciden con el origen y se continúa desde ahí.
+ */
+public class ResumableCopy {
+
+    public static final String PARTIAL_SUFFIX = ".copit-partial";
+    public static final String CHECKPOINT_SUFFIX = ".copit-checkpoint";
+
+    private static final int VERIFY_WINDOW = 64 * 1024;
+    private static final String SEPARATOR = "\t";
+    private static final String ENCODING = "UTF-8";
+
+    private final File srcFile;
+    private final File destFile;
+    private final File partialFile;
+    private final File checkpointFile;
+
+    private long chunkSize = 0;
+    private CopyStrategy strategy;
+    private MessageDigest digest;
+
+
+    public ResumableCopy(File srcFile, File destFile) {
+        this.srcFile = srcFile;
+        this.destFile = destFile;
+        this.partialFile = new File(destFile.getPath() + PARTIAL_SUFFIX);
+        this.checkpointFile = new File(destFile.getPath() + CHECKPOINT_SUFFIX);
+    }
+
+
+    /**
+     * Establece cada cuántos bytes se guarda el punto de control. Si no se indica depende de la estrategia.
+     */
+    public ResumableCopy chunkSize(long chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+        return this;
+    }
+
+
+    /**
+     * Establece la estrategia usada para copiar cada bloque
+     */
+    public ResumableCopy strategy(CopyStrategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+
+    /**
+     * Establece el digest que calculará la huella del archivo completo
+     */
+    public ResumableCopy digest(MessageDigest digest) {
+        this.digest = digest;
+        return this;
+    }
+
+
+    /**
+     * Copia el archivo, continuando desde el último punto de control válido si lo hay
+     */
+    public void copy(Files.CopyListener listener) throws IOException {
+
+        Files.createParentFolder(destFile);
+
+        long offset = getResumeOffset();
+
+        FileInputStream input = null;
+        RandomAccessFile output = null;
+
+        try {
+
+            input = new FileInputStream(srcFile);
+            output = new RandomAccessFile(partialFile, "rw");
+
+            FileChannel in = input.getChannel();
+            FileChannel out = output.getChannel();
+
+            long size = in.size();
+
+            CopyStrategy strategy = (this.strategy != null) ? this.strategy : CopyStrategies.select(size, false);
+            long chunkSize = (this.chunkSize > 0) ? this.chunkSize : CopyStrategies.getChunkSize(strategy, Files.TRANSFER_CHUNK_SIZE);
+
+            out.truncate(offset);
+            Files.preallocate(output, size);
+            out.position(offset);
+
+            if (digest != null && offset > 0) {
+                Files.update(digest, in, 0, offset);
+            }
+
+            long position = offset;
+
+            while (position < size) {
+
+                long count = Files.copyRange(strategy, in, out, position, Math.min(chunkSize, size - position), digest);
+
+                position += count;
+
+                out.force(false);
+                saveCheckpoint(position);
+
+                if (listener != null) {
+                    listener.onBytesCopied(count);
+                }
+            }
+
+            output.close();
+
+        } finally {
+
+            IOUtils.closeQuietly(output);
+            IOUtils.closeQuietly(input);
+        }
+
+        complete();
+    }
+
+
+    /**
+     * Obtiene la posición desde la que se puede continuar la copia (0 si hay que empezar de nuevo).
+     * Si lo copiado anteriormente no sirve se eliminan el archivo parcial y el de control.
+     */
+    public long getResumeOffset() {
+
+        long offset = readCheckpoint();
+
+        if (offset > 0 && isValidPrefix(offset)) {
+            return offset;
+        }
+
+        discard();
+
+        return 0;
+    }
+
+
+    /**
+     * Elimina el archivo parcial y el de control
+     */
+    public void discard() {
+        FileUtils.deleteQuietly(partialFile);
+        FileUtils.deleteQuietly(checkpointFile);
+    }
+
+
+    /**
+     * Sustituye el destino por el archivo parcial ya completo
+     */
+    private void complete() throws IOException {
+
+        Files.replaceFile(partialFile, destFile);
+
+        destFile.setLastModified(srcFile.lastModified());
+
+        FileUtils.deleteQuietly(checkpointFile);
+    }
+
+
+    /**
+     * Guarda hasta dónde se ha copiado junto con los datos del origen en ese momento
+     */
+    private void saveCheckpoint(long offset) throws IOException {
+
+        String checkpoint = srcFile.length() + SEPARATOR + srcFile.lastModified() + SEPARATOR + offset + "\n";
+
+        FileUtils.writeStringToFile(checkpointFile, checkpoint, ENCODING);
+    }
+
+
+    /**
+     * Lee la posición guardada en el punto de control, siempre que el origen no haya cambiado
+     */
+    private long readCheckpoint() {
+
+        if (!checkpointFile.isFile() || !partialFile.isFile()) {
+            return 0;
+        }
+
+        try {
+
+            String checkpoint = FileUtils.readFileToString(checkpointFile, ENCODING);
+
+            if (!checkpoint.endsWith("\n")) {
+                return 0;
+            }
+
+            String[] fields = checkpoint.trim().split(SEPARATOR);
+
+            if (fields.length != 3) {
+                return 0;
+            }
+
+            long length = Long.parseLong(fields[0]);
+            long lastModified = Long.parseLong(fields[1]);
+            long offset = Long.parseLong(fields[2]);
+
+            if (length != srcFile.length() || lastModified != srcFile.lastModified()) {
+                return 0;
+            }
+
+            if (offset > length || offset > partialFile.length()) {
+                return 0;
+            }
+
+            return offset;
+
+        } catch (IOException | NumberFormatException e) {
+
+            return 0;
+        }
+    }
+
+
+    /**
+     * Comprueba que el principio y el final de lo ya copiado coinciden con el origen
+     */
+    private boolean isValidPrefix(long offset) {
+
+        FileInputStream source = null;
+        FileInputStream partial = null;
+
+        try {
+
+            source = new FileInputStream(srcFile);
+            partial = new FileInputStream(partialFile);
+
+            FileChannel in = source.getChannel();
+            FileChannel out = partial.getChannel();
+
+            long window = Math.min(VERIFY_WINDOW, offset);
+
+            return checksum(in, 0, window) == checksum(out, 0, window) &&
+                    checksum(in, offset - window, window) == checksum(out, offset - window, window);
+
+        } catch (IOException e) {
+
+            return false;
+
+        } finally {
+
+            IOUtils.closeQuietly(partial);
+            IOUtils.closeQuietly(source);
+        }
+    }
+
+
+    /**
+     * Calcula el CRC32 de un bloque del canal indicado
+     */
+    private static long checksum(FileChannel channel, long position, long count) throws IOException {
+
+        CRC32 crc = new CRC32();
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) count);
+
+        while (buffer.hasRemaining()) {
+
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+
+        crc.update(buffer.array(), 0, buffer.position());
+
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Historial con el resumen de las últimas ejecuciones de la copia, una por línea
+ * y de la más antigua a la más reciente
+ */
+public class RunHistory {
+
+    public static final String FILE_NAME = "run_history";
+    public static final int DEFAULT_MAX_RUNS = 20;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String ENCODING = "UTF-8";
+
+    private final File file;
+    private final int maxRuns;
+
+
+    public RunHistory(File folder) {
+        this(folder, DEFAULT_MAX_RUNS);
+    }
+
+
+    public RunHistory(File folder, int maxRuns) {
+        this.file = new File(folder, FILE_NAME);
+        this.maxRuns = Math.max(1, maxRuns);
+    }
+
+
+    /**
+     * Obtiene las ejecuciones guardadas. Las líneas que no se pueden leer se ignoran.
+     */
+    public List<RunSummary> getRuns() throws IOException {
+
+        List<RunSummary> runs = new ArrayList<>();
+
+        if (!file.isFile()) {
+            return runs;
+        }
+
+        for (String line : FileUtils.readLines(file, ENCODING)) {
+
+            try {
+
+                runs.add(RunSummary.fromLine(line));
+
+            } catch (IllegalArgumentException ignore) {
+
+                // Línea incompleta o de una versión anterior
+            }
+        }
+
+        return runs;
+    }
+
+
+    /**
+     * Añade una ejecución, descartando las más antiguas si se supera el máximo
+     */
+    public synchronized void add(RunSummary summary) throws IOException {
+
+        List<RunSummary> runs = getRuns();
+
+        runs.add(summary);
+
+        List<String> lines = new ArrayList<>();
+
+        for (RunSummary run : runs.subList(Math.max(0, runs.size() - maxRuns), runs.size())) {
+            lines.add(run.toLine());
+        }
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+
+        FileUtils.writeLines(temp, ENCODING, lines);
+
+        if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+            throw new IOException("Can't replace " + file);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Contadores de una ejecución de la copia: archivos y bytes, tiempo de cada fase
+ * y latencia de cada archivo. Se pueden actualizar desde varios hilos a la vez.
+ */
+public class RunMetrics {
+
+    /**
+     * Un grupo por cada potencia de dos de microsegundos, hasta más de una hora por archivo
+     */
+    private static final int LATENCY_BUCKETS = 40;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicLong scanNanos = new AtomicLong();
+    private final AtomicLong copyNanos = new AtomicLong();
+    private final AtomicLong metadataNanos = new AtomicLong();
+
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+    private final ConcurrentMap<String, SourceCounters> sources = new ConcurrentHashMap<>();
+
+
+    /**
+     * Anota el resultado de recorrer un origen
+     */
+    void addScan(String source, int scanned, int skipped) {
+        SourceCounters counters = getSource(source);
+        counters.scanned.addAndGet(scanned);
+        counters.skipped.addAndGet(skipped);
+    }
+
+
+    /**
+     * Suma el tiempo de la fase de recorrido de los orígenes
+     */
+    void addScanTime(long nanos) {
+        scanNanos.addAndGet(nanos);
+    }
+
+
+    /**
+     * Anota un archivo copiado, con los bytes escritos y lo que ha tardado
+     */
+    void addCopiedFile(String source, long bytes, long nanos) {
+        SourceCounters counters = getSource(source);
+        counters.copied.incrementAndGet();
+        counters.bytes.addAndGet(bytes);
+        counters.nanos.addAndGet(nanos);
+        latencies.incrementAndGet(getBucket(nanos));
+    }
+
+
+    /**
+     * Suma el tiempo de la fase de copia
+     */
+    void addCopyTime(long nanos) {
+        copyNanos.addAndGet(nanos);
+    }
+
+
+    /**
+     * Suma el tiempo dedicado al registro de archivos copiados y otros metadatos
+     */
+    public void addMetadataTime(long nanos) {
+        metadataNanos.addAndGet(nanos);
+    }
+
+
+    /**
+     * Obtiene el resumen de la ejecución hasta este momento
+     */
+    public RunSummary summarize(boolean success, String device, String destination) {
+
+        List<RunSummary.Source> summaries = new ArrayList<>();
+
+        long filesScanned = 0;
+        long filesCopied = 0;
+        long filesSkipped = 0;
+        long bytesCopied = 0;
+
+        for (Map.Entry<String, SourceCounters> entry : sources.entrySet()) {
+
+            SourceCounters counters = entry.getValue();
+
+            filesScanned += counters.scanned.get();
+            filesCopied += counters.copied.get();
+            filesSkipped += counters.skipped.get();
+            bytesCopied += counters.bytes.get();
+
+            summaries.add(new RunSummary.Source(entry.getKey(), counters.copied.get(), counters.bytes.get(),
+                    toMillis(counters.nanos.get())));
+        }
+
+        return new RunSummary(startTime, success, device, destination,
+                filesScanned, filesCopied, filesSkipped, bytesCopied,
+                toMillis(scanNanos.get()), toMillis(copyNanos.get()), toMillis(metadataNanos.get()),
+                getPercentile(0.5), getPercentile(0.9), getPercentile(0.99),
+                summaries);
+    }
+
+
+    /**
+     * Obtiene los contadores del origen indicado, creándolos si no existen
+     */
+    private SourceCounters getSource(String source) {
+
+        SourceCounters counters = sources.get(source);
+
+        if (counters == null) {
+            SourceCounters created = new SourceCounters();
+            counters = sources.putIfAbsent(source, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+
+        return counters;
+    }
+
+
+    /**
+     * Obtiene el percentil indicado de la latencia por archivo, en microsegundos.
+     * Es aproximado: se devuelve el límite superior del grupo en el que cae.
+     */
+    private long getPercentile(double percentile) {
+
+        long total = 0;
+
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            total += latencies.get(i);
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(total * percentile);
+        long count = 0;
+
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+
+            count += latencies.get(i);
+
+            if (count >= target) {
+                return 1L << i;
+            }
+        }
+
+        return 1L << (LATENCY_BUCKETS - 1);
+    }
+
+
+    /**
+     * Grupo de latencia en el que cae la duración indicada
+     */
+    private static int getBucket(long nanos) {
+
+        long micros = Math.max(1, nanos / 1000);
+
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+
+        return Math.min(bucket, LATENCY_BUCKETS - 1);
+    }
+
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+
+
+    /**
+     * Contadores de un único origen
+     */
+    private static class SourceCounters {
+
+        final AtomicLong scanned = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        final AtomicLong copied = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+    }
+}
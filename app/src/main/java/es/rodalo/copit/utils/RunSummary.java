@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resumen de una ejecución de la copia, que se envía al terminar y se guarda en el historial.
+ * Los tiempos están en milisegundos salvo las latencias por archivo, en microsegundos.
+ */
+public class RunSummary implements Serializable {
+
+    private static final String SEPARATOR = "\t";
+    private static final String SOURCE_SEPARATOR = ",";
+    private static final String FIELD_SEPARATOR = ":";
+    private static final String ENCODING = "UTF-8";
+    private static final int FIELDS = 15;
+
+    public final long startTime;
+    public final boolean success;
+    public final String device;
+    public final String destination;
+
+    public final long filesScanned;
+    public final long filesCopied;
+    public final long filesSkipped;
+    public final long bytesCopied;
+
+    public final long scanMillis;
+    public final long copyMillis;
+    public final long metadataMillis;
+
+    public final long latencyP50Micros;
+    public final long latencyP90Micros;
+    public final long latencyP99Micros;
+
+    public final List<Source> sources;
+
+
+    public RunSummary(long startTime, boolean success, String device, String destination,
+                      long filesScanned, long filesCopied, long filesSkipped, long bytesCopied,
+                      long scanMillis, long copyMillis, long metadataMillis,
+                      long latencyP50Micros, long latencyP90Micros, long latencyP99Micros,
+                      List<Source> sources) {
+
+        this.startTime = startTime;
+        this.success = success;
+        this.device = device;
+        this.destination = destination;
+        this.filesScanned = filesScanned;
+        this.filesCopied = filesCopied;
+        this.filesSkipped = filesSkipped;
+        this.bytesCopied = bytesCopied;
+        this.scanMillis = scanMillis;
+        this.copyMillis = copyMillis;
+        this.metadataMillis = metadataMillis;
+        this.latencyP50Micros = latencyP50Micros;
+        this.latencyP90Micros = latencyP90Micros;
+        this.latencyP99Micros = latencyP99Micros;
+        this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+    }
+
+
+    /**
+     * Bytes por segundo durante la fase de copia
+     */
+    public long getBytesPerSecond() {
+        return perSecond(bytesCopied, copyMillis);
+    }
+
+
+    /**
+     * Archivos por segundo durante la fase de copia
+     */
+    public long getFilesPerSecond() {
+        return perSecond(filesCopied, copyMillis);
+    }
+
+
+    /**
+     * Convierte el resumen en una única línea de texto
+     */
+    public String toLine() {
+
+        StringBuilder encoded = new StringBuilder();
+
+        for (Source source : sources) {
+
+            if (encoded.length() > 0) {
+                encoded.append(SOURCE_SEPARATOR);
+            }
+
+            encoded.append(encode(source.name)).append(FIELD_SEPARATOR)
+                    .append(source.filesCopied).append(FIELD_SEPARATOR)
+                    .append(source.bytesCopied).append(FIELD_SEPARATOR)
+                    .append(source.copyMillis);
+        }
+
+        return startTime + SEPARATOR + (success ? 1 : 0) + SEPARATOR +
+                encode(device) + SEPARATOR + encode(destination) + SEPARATOR +
+                filesScanned + SEPARATOR + filesCopied + SEPARATOR + filesSkipped + SEPARATOR + bytesCopied + SEPARATOR +
+                scanMillis + SEPARATOR + copyMillis + SEPARATOR + metadataMillis + SEPARATOR +
+                latencyP50Micros + SEPARATOR + latencyP90Micros + SEPARATOR + latencyP99Micros + SEPARATOR +
+                encoded;
+    }
+
+
+    /**
+     * Obtiene un resumen a partir de una línea de texto creada con {@link #toLine()}
+     */
+    public static RunSummary fromLine(String line) {
+
+        String[] fields = line.split(SEPARATOR, -1);
+
+        if (fields.length != FIELDS) {
+            throw new IllegalArgumentException("Invalid run summary: " + line);
+        }
+
+        List<Source> sources = new ArrayList<>();
+
+        if (!fields[14].isEmpty()) {
+
+            for (String source : fields[14].split(SOURCE_SEPARATOR)) {
+
+                String[] values = source.split(FIELD_SEPARATOR);
+
+                if (values.length != 4) {
+                    throw new IllegalArgumentException("Invalid run summary: " + line);
+                }
+
+                sources.add(new Source(decode(values[0]), Long.parseLong(values[1]),
+                        Long.parseLong(values[2]), Long.parseLong(values[3])));
+            }
+        }
+
+        return new RunSummary(Long.parseLong(fields[0]), "1".equals(fields[1]), decode(fields[2]), decode(fields[3]),
+                Long.parseLong(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6]), Long.parseLong(fields[7]),
+                Long.parseLong(fields[8]), Long.parseLong(fields[9]), Long.parseLong(fields[10]),
+                Long.parseLong(fields[11]), Long.parseLong(fields[12]), Long.parseLong(fields[13]),
+                sources);
+    }
+
+
+    private static long perSecond(long count, long millis) {
+        return (millis > 0) ? count * 1000 / millis : 0;
+    }
+
+
+    private static String encode(String value) {
+
+        try {
+
+            return URLEncoder.encode(value != null ? value : "", ENCODING);
+
+        } catch (UnsupportedEncodingException e) {
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static String decode(String value) {
+
+        try {
+
+            return URLDecoder.decode(value, ENCODING);
+
+        } catch (UnsupportedEncodingException e) {
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Datos de copia de un único origen. El tiempo es la suma de lo que ha tardado
+     * cada archivo, así que con varios hilos puede ser mayor que la duración de la copia.
+     */
+    public static class Source implements Serializable {
+
+        public final String name;
+        public final long filesCopied;
+        public final long bytesCopied;
+        public final long copyMillis;
+
+        public Source(String name, long filesCopied, long bytesCopied, long copyMillis) {
+            this.name = name;
+            this.filesCopied = filesCopied;
+            this.bytesCopied = bytesCopied;
+            this.copyMillis = copyMillis;
+        }
+
+        /**
+         * Bytes por segundo copiando archivos de este origen
+         */
+        public long getBytesPerSecond() {
+            return perSecond(bytesCopied, copyMillis);
+        }
+
+        /**
+         * Archivos por segundo copiando archivos de este origen
+         */
+        public long getFilesPerSecond() {
+            return perSecond(filesCopied, copyMillis);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Copias fechadas de una carpeta de backup. Cada copia se guarda en su propia carpeta, pero
+ * los archivos que no han cambiado desde la anterior no se vuelven a copiar: se enlazan o se
+ * registran como referencias a la copia anterior (ver {@link BackupManifest}), así que cada
+ * copia sólo ocupa lo que ha cambiado.
+ */
+public class SnapshotStore {
+
+    public static final String FOLDER_NAME = "snapshots";
+
+    /**
+     * Archivo que marca una copia como terminada
+     */
+    public static final String COMPLETE_FILE = ".copit_complete";
+
+    private static final String NAME_FORMAT = "yyyy-MM-dd_HHmmss";
+
+    private final File folder;
+
+
+    /**
+     * @param root carpeta del backup, donde está también el registro de archivos copiados
+     */
+    public SnapshotStore(File root) {
+        this.folder = new File(root, FOLDER_NAME);
+    }
+
+
+    /**
+     * Obtiene las carpetas de las copias, de la más antigua a la más reciente
+     */
+    public List<File> getSnapshots() {
+
+        File[] files = folder.listFiles();
+
+        if (files == null) {
+            return new ArrayList<>();
+        }
+
+        List<File> snapshots = new ArrayList<>();
+
+        for (File file : files) {
+            if (file.isDirectory() && isSnapshotName(file.getName())) {
+                snapshots.add(file);
+            }
+        }
+
+        // El formato de la fecha hace que el orden alfabético sea el cronológico
+
+        Collections.sort(snapshots);
+
+        return snapshots;
+    }
+
+
+    /**
+     * Obtiene la copia terminada más reciente, o null si no hay ninguna
+     */
+    public File getLatestComplete() {
+
+        List<File> snapshots = getSnapshots();
+
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            if (isComplete(snapshots.get(i))) {
+                return snapshots.get(i);
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Obtiene la carpeta donde se hará la copia: la última si se quedó a medias, para continuarla,
+     * o una nueva con la fecha indicada
+     */
+    public File begin(Date time) throws IOException {
+
+        List<File> snapshots = getSnapshots();
+
+        if (!snapshots.isEmpty() && !isComplete(snapshots.get(snapshots.size() - 1))) {
+            return snapshots.get(snapshots.size() - 1);
+        }
+
+        File snapshot = new File(folder, format(time));
+
+        if (!snapshot.mkdirs() && !snapshot.isDirectory()) {
+            throw new IOException("Can't create snapshot " + snapshot);
+        }
+
+        return snapshot;
+    }
+
+
+    /**
+     * Marca la copia como terminada
+     */
+    public void complete(File snapshot) throws IOException {
+
+        FileUtils.touch(new File(snapshot, COMPLETE_FILE));
+    }
+
+
+    public static boolean isComplete(File snapshot) {
+        return new File(snapshot, COMPLETE_FILE).isFile();
+    }
+
+
+    /**
+     * Borra las copias terminadas más antiguas, conservando las indicadas, y las que se quedaron
+     * a medias antes de la última terminada. Lo que siga haciendo falta en las copias que se
+     * conservan se mueve a ellas sin copiar sus datos. Devuelve las copias borradas.
+     */
+    public List<File> prune(BackupManifest manifest, int keep) throws IOException {
+
+        List<File> snapshots = getSnapshots();
+        List<File> removed = new ArrayList<>();
+
+        int complete = 0;
+
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+
+            File snapshot = snapshots.get(i);
+
+            if (isComplete(snapshot)) {
+                complete += 1;
+            }
+
+            boolean abandoned = !isComplete(snapshot) && complete > 0;
+
+            if (complete > keep || abandoned) {
+                removed.add(snapshot);
+            }
+        }
+
+        Collections.reverse(removed);
+
+        for (File snapshot : removed) {
+
+            manifest.removeFolder(snapshot);
+
+            // Antes de borrar nada el registro ya no debe apuntar a la copia
+
+            manifest.save();
+
+            FileUtils.deleteDirectory(snapshot);
+        }
+
+        return removed;
+    }
+
+
+    private static String format(Date time) {
+        return new SimpleDateFormat(NAME_FORMAT, Locale.US).format(time);
+    }
+
+
+    private static boolean isSnapshotName(String name) {
+
+        SimpleDateFormat format = new SimpleDateFormat(NAME_FORMAT, Locale.US);
+        format.setLenient(false);
+
+        try {
+
+            return format.format(format.parse(name)).equals(name);
+
+        } catch (ParseException e) {
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recorre carpetas leyendo los atributos de cada entrada una única vez
+ */
+public class TreeWalker {
+
+    /**
+     * Lectura con java.io: una llamada al sistema por atributo, pero disponible en cualquier versión
+     */
+    public static final FileStat JAVA_IO = new FileStat() {
+        @Override
+        public FileEntry stat(File file) {
+
+            if (file.isDirectory()) {
+                return new FileEntry(file, true, 0, 0);
+            }
+
+            return new FileEntry(file, false, file.length(), file.lastModified());
+        }
+    };
+
+    private final FileStat stat;
+
+
+    public TreeWalker() {
+        this(null);
+    }
+
+
+    public TreeWalker(FileStat stat) {
+        this.stat = (stat != null) ? stat : JAVA_IO;
+    }
+
+
+    /**
+     * Obtiene el contenido de una carpeta (vacío si no se puede leer)
+     */
+    public List<FileEntry> list(File directory) {
+
+        String[] names = directory.list();
+
+        if (names == null) {
+            return Collections.emptyList();
+        }
+
+        List<FileEntry> entries = new ArrayList<>(names.length);
+
+        for (String name : names) {
+
+            FileEntry entry = stat.stat(new File(directory, name));
+
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * Obtiene los archivos de la carpeta y sus subcarpetas cuyo nombre acepta el filtro
+     */
+    public List<FileEntry> find(File directory, FilenameFilter filter) {
+
+        List<FileEntry> found = new ArrayList<>();
+
+        find(directory, filter, found);
+
+        return found;
+    }
+
+
+    private void find(File directory, FilenameFilter filter, List<FileEntry> found) {
+
+        for (FileEntry entry : list(directory)) {
+
+            if (entry.directory) {
+                find(entry.file, filter, found);
+            } else if (filter.accept(directory, entry.getName())) {
+                found.add(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reparte los archivos del plan entre los hilos de copia teniendo en cuenta en qué volumen
+ * físico están el origen y el destino de cada uno.
+ *
+ * Cada volumen admite un número limitado de copias a la vez, lo use como origen o como destino:
+ * en las memorias extraíbles (SD, USB) pocas, para que no pierdan el tiempo saltando de un
+ * archivo a otro, y en la memoria interna tantas como hilos. Así se pueden copiar a la vez
+ * archivos de volúmenes distintos sin saturar ninguno. Entre los archivos que se pueden copiar
+ * se respeta el orden del plan.
+ */
+class VolumeScheduler {
+
+    /**
+     * Copias a la vez en una memoria extraíble: una se abre o se cierra mientras la otra escribe
+     */
+    static final int REMOVABLE_VOLUME_COPIES = 2;
+
+    private final Volumes volumes;
+    private final int maxCopies;
+
+    private final List<Lane> lanes = new ArrayList<>();
+    private final Map<String, Integer> busy = new HashMap<>();
+    private final Map<String, Integer> limits = new HashMap<>();
+
+
+    VolumeScheduler(List<CopyPlan.Item> items, Volumes volumes, int maxCopies) {
+
+        this.volumes = volumes;
+        this.maxCopies = maxCopies;
+
+        Map<String, Lane> lanesByVolumes = new HashMap<>();
+
+        int sequence = 0;
+
+        for (CopyPlan.Item item : items) {
+
+            String srcVolume = getVolume(item.srcFile.getParentFile());
+            String destVolume = getVolume(item.destFile.getParentFile());
+
+            String key = srcVolume + File.pathSeparator + destVolume;
+
+            Lane lane = lanesByVolumes.get(key);
+
+            if (lane == null) {
+                lane = new Lane(srcVolume, destVolume);
+                lanesByVolumes.put(key, lane);
+                lanes.add(lane);
+            }
+
+            lane.items.add(new Slot(item, sequence++));
+        }
+    }
+
+
+    /**
+     * Obtiene el siguiente archivo que se puede copiar, esperando si todos los pendientes
+     * están en volúmenes ocupados. Devuelve null cuando ya no quedan archivos.
+     */
+    synchronized Assignment take() throws InterruptedException {
+
+        while (true) {
+
+            Lane best = null;
+            boolean pending = false;
+
+            for (Lane lane : lanes) {
+
+                if (lane.items.isEmpty()) {
+                    continue;
+                }
+
+                pending = true;
+
+                if (canStart(lane) && (best == null || lane.items.getFirst().sequence < best.items.getFirst().sequence)) {
+                    best = lane;
+                }
+            }
+
+            if (!pending) {
+                return null;
+            }
+
+            if (best != null) {
+                acquire(best);
+                return new Assignment(best, best.items.removeFirst().item);
+            }
+
+            wait();
+        }
+    }
+
+
+    /**
+     * Libera los volúmenes de un archivo ya copiado
+     */
+    synchronized void release(Assignment assignment) {
+
+        Lane lane = assignment.lane;
+
+        busy.put(lane.srcVolume, getBusy(lane.srcVolume) - 1);
+
+        if (!lane.isSameVolume()) {
+            busy.put(lane.destVolume, getBusy(lane.destVolume) - 1);
+        }
+
+        notifyAll();
+    }
+
+
+    /**
+     * Comprueba si hay sitio en los volúmenes de origen y destino para una copia más
+     */
+    private boolean canStart(Lane lane) {
+
+        return getBusy(lane.srcVolume) < getLimit(lane.srcVolume) &&
+                (lane.isSameVolume() || getBusy(lane.destVolume) < getLimit(lane.destVolume));
+    }
+
+
+    /**
+     * Anota una copia más en los volúmenes de origen y destino
+     */
+    private void acquire(Lane lane) {
+
+        busy.put(lane.srcVolume, getBusy(lane.srcVolume) + 1);
+
+        if (!lane.isSameVolume()) {
+            busy.put(lane.destVolume, getBusy(lane.destVolume) + 1);
+        }
+    }
+
+
+    private int getBusy(String volume) {
+        Integer count = busy.get(volume);
+        return (count != null) ? count : 0;
+    }
+
+
+    private int getLimit(String volume) {
+        Integer limit = limits.get(volume);
+        return (limit != null) ? limit : maxCopies;
+    }
+
+
+    /**
+     * Identifica el volumen de una carpeta, anotando su límite de copias la primera vez
+     */
+    private String getVolume(File folder) {
+
+        if (volumes == null) {
+            return "";
+        }
+
+        String volume = volumes.getVolume(folder);
+
+        if (!limits.containsKey(volume)) {
+            limits.put(volume, volumes.isRemovable(folder) ? Math.min(maxCopies, REMOVABLE_VOLUME_COPIES) : maxCopies);
+        }
+
+        return volume;
+    }
+
+
+    /**
+     * Archivo asignado a un hilo de copia
+     */
+    static class Assignment {
+
+        final CopyPlan.Item item;
+
+        private final Lane lane;
+
+        Assignment(Lane lane, CopyPlan.Item item) {
+            this.lane = lane;
+            this.item = item;
+        }
+    }
+
+
+    /**
+     * Archivos pendientes con el mismo volumen de origen y de destino, en el orden del plan
+     */
+    private static class Lane {
+
+        final String srcVolume;
+        final String destVolume;
+        final LinkedList<Slot> items = new LinkedList<>();
+
+        Lane(String srcVolume, String destVolume) {
+            this.srcVolume = srcVolume;
+            this.destVolume = destVolume;
+        }
+
+        boolean isSameVolume() {
+            return srcVolume.equals(destVolume);
+        }
+    }
+
+
+    private static class Slot {
+
+        final CopyPlan.Item item;
+        final int sequence;
+
+        Slot(CopyPlan.Item item, int sequence) {
+            this.item = item;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Puntos de montaje del sistema, usados para saber en qué volumen físico está cada carpeta
+ * y si es una memoria extraíble (SD, USB)
+ */
+public class Volumes {
+
+    private static final String MOUNTS_FILE = "/proc/mounts";
+
+    /**
+     * Sistemas de archivos que sólo se usan en memorias extraíbles
+     */
+    private static final Set<String> REMOVABLE_TYPES = new HashSet<>(Arrays.asList(
+            "vfat", "msdos", "exfat", "sdfat", "texfat", "ntfs", "fuseblk"));
+
+    private static final int MAX_DEPTH = 4;
+
+    private final List<Mount> mounts;
+    private final Map<String, Mount> volumeByFolder = new ConcurrentHashMap<>();
+
+
+    Volumes(List<Mount> mounts) {
+
+        this.mounts = new ArrayList<>(mounts);
+
+        // Primero los puntos de montaje más largos, para encontrar siempre el más concreto
+
+        Collections.sort(this.mounts, new Comparator<Mount>() {
+            @Override
+            public int compare(Mount mount1, Mount mount2) {
+                return mount2.path.length() - mount1.path.length();
+            }
+        });
+    }
+
+
+    /**
+     * Lee los puntos de montaje del sistema. Si no se pueden leer se considera que todo
+     * está en el mismo volumen.
+     */
+    public static Volumes load() {
+
+        try {
+
+            return parse(FileUtils.readLines(new File(MOUNTS_FILE), "UTF-8"));
+
+        } catch (IOException e) {
+
+            return new Volumes(Collections.<Mount>emptyList());
+        }
+    }
+
+
+    /**
+     * Obtiene los puntos de montaje a partir de las líneas con el formato de /proc/mounts
+     */
+    public static Volumes parse(List<String> lines) {
+
+        List<Mount> mounts = new ArrayList<>();
+
+        for (String line : lines) {
+
+            String[] fields = line.trim().split("\\s+");
+
+            if (fields.length >= 3) {
+                mounts.add(new Mount(fields[0], unescape(fields[1]), fields[2]));
+            }
+        }
+
+        return new Volumes(mounts);
+    }
+
+
+    /**
+     * Obtiene el identificador del volumen físico en el que está la carpeta.
+     * Las carpetas montadas sobre otras (como /storage/emulated sobre /data/media)
+     * se asignan al volumen que hay debajo. Para un archivo se indica la carpeta que lo contiene.
+     */
+    public String getVolume(File folder) {
+
+        Mount mount = getMount(folder);
+
+        return (mount != null) ? mount.device : "";
+    }
+
+
+    /**
+     * Comprueba si la carpeta está en una memoria extraíble
+     */
+    public boolean isRemovable(File folder) {
+
+        Mount mount = getMount(folder);
+
+        return mount != null && mount.isRemovable();
+    }
+
+
+    /**
+     * Obtiene el punto de montaje del volumen físico en el que está la carpeta.
+     * Se guarda por carpeta, así que los archivos de una misma carpeta sólo la resuelven una vez.
+     */
+    private Mount getMount(File folder) {
+
+        String key = folder.getPath();
+
+        Mount mount = volumeByFolder.get(key);
+
+        if (mount == null) {
+
+            mount = resolve(getCanonicalPath(folder), 0);
+
+            if (mount != null) {
+                volumeByFolder.put(key, mount);
+            }
+        }
+
+        return mount;
+    }
+
+
+    /**
+     * Busca el punto de montaje de la ruta indicada siguiendo los montajes de una carpeta sobre otra
+     */
+    private Mount resolve(String path, int depth) {
+
+        for (Mount mount : mounts) {
+
+            if (isInside(path, mount.path)) {
+
+                if (mount.device.startsWith("/") && !mount.device.startsWith("/dev/") && depth < MAX_DEPTH) {
+
+                    Mount underlying = resolve(mount.device, depth + 1);
+
+                    if (underlying != null) {
+                        return underlying;
+                    }
+                }
+
+                return mount;
+            }
+        }
+
+        return null;
+    }
+
+
+    private static boolean isInside(String path, String mountPath) {
+
+        return mountPath.equals("/") || path.equals(mountPath) || path.startsWith(mountPath + "/");
+    }
+
+
+    private static String getCanonicalPath(File folder) {
+
+        try {
+
+            return folder.getCanonicalPath();
+
+        } catch (IOException e) {
+
+            return folder.getAbsolutePath();
+        }
+    }
+
+
+    /**
+     * Los espacios y otros caracteres especiales aparecen como secuencias octales (\040)
+     */
+    private static String unescape(String path) {
+
+        StringBuilder result = new StringBuilder();
+
+        for (int i = 0; i < path.length(); i++) {
+
+            char c = path.charAt(i);
+
+            if (c == '\\' && i + 3 < path.length() && isOctal(path, i + 1)) {
+                result.append((char) Integer.parseInt(path.substring(i + 1, i + 4), 8));
+                i += 3;
+            } else {
+                result.append(c);
+            }
+        }
+
+        return result.toString();
+    }
+
+
+    private static boolean isOctal(String path, int start) {
+
+        for (int i = start; i < start + 3; i++) {
+            if (path.charAt(i) < '0' || path.charAt(i) > '7') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Punto de montaje: dispositivo, carpeta y tipo de sistema de archivos
+     */
+    static class Mount {
+
+        final String device;
+        final String path;
+        final String type;
+
+        Mount(String device, String path, String type) {
+            this.device = device;
+            this.path = path;
+            this.type = type;
+        }
+
+        boolean isRemovable() {
+            return REMOVABLE_TYPES.contains(type) || path.startsWith("/mnt/media_rw/");
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils.copy;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Copia de canal a canal con transferTo, sin pasar los datos por buffers de la aplicación.
+ * Si el sistema de archivos no lo soporta, o hay que calcular la huella, se copia el resto
+ * con la estrategia indicada.
+ */
+class ChannelCopyStrategy implements CopyStrategy {
+
+    static final String NAME = "channel";
+
+    private final CopyStrategy fallback;
+
+
+    ChannelCopyStrategy(CopyStrategy fallback) {
+        this.fallback = fallback;
+    }
+
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+
+    @Override
+    public long copy(FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException {
+
+        long start = out.position();
+        long done = 0;
+
+        if (digest == null) {
+
+            try {
+
+                while (done < count) {
+
+                    long transferred = in.transferTo(position + done, count - done, out);
+
+                    if (transferred <= 0) {
+                        break;
+                    }
+
+                    done += transferred;
+                }
+
+            } catch (IOException ignore) {
+
+                // Algunos sistemas de archivos (FUSE, sdcardfs...) no soportan transferTo
+
+                out.position(start + done);
+            }
+        }
+
+        if (done < count) {
+            done += fallback.copy(in, out, position + done, count - done, digest);
+        }
+
+        return done;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils.copy;
+
+/**
+ * Estrategias de copia disponibles y criterio para elegir la más adecuada
+ */
+public class CopyStrategies {
+
+    public static final CopyStrategy STREAM = new StreamCopyStrategy();
+    public static final CopyStrategy POOLED = new PooledBufferCopyStrategy();
+    public static final CopyStrategy CHANNEL = new ChannelCopyStrategy(POOLED);
+    public static final CopyStrategy MAPPED = new MappedCopyStrategy(POOLED);
+
+    /**
+     * Por debajo de este tamaño la transferencia directa no compensa la llamada extra al sistema
+     */
+    private static final long SMALL_FILE_SIZE = 256 * 1024;
+
+    /**
+     * A partir de este tamaño (vídeos largos) se proyecta el archivo en memoria
+     */
+    private static final long MAPPED_MIN_SIZE = 512 * 1024 * 1024;
+
+
+    /**
+     * Elige la estrategia para un archivo del tamaño indicado. En memorias extraíbles (USB, SD)
+     * el sistema de archivos suele ir por FUSE, donde transferTo acaba copiando por buffers igualmente.
+     * Los archivos muy grandes se proyectan en memoria, salvo en 32 bits donde falta espacio de direcciones.
+     */
+    public static CopyStrategy select(long size, boolean removableDestination) {
+
+        if (size < SMALL_FILE_SIZE || removableDestination) {
+            return POOLED;
+        }
+
+        if (size >= MAPPED_MIN_SIZE && MappedCopyStrategy.is64Bit()) {
+            return MAPPED;
+        }
+
+        return CHANNEL;
+    }
+
+
+    /**
+     * Obtiene el tamaño de los bloques en los que conviene pedir la copia a la estrategia indicada.
+     * Al proyectar en memoria cada bloque se copia en ventanas, así que no deben ser más pequeños que una ventana.
+     */
+    public static long getChunkSize(CopyStrategy strategy, long chunkSize) {
+
+        return (strategy == MAPPED) ? Math.max(chunkSize, MappedCopyStrategy.WINDOW_SIZE) : chunkSize;
+    }
+
+
+    /**
+     * Obtiene la estrategia con el nombre indicado
+     */
+    public static CopyStrategy byName(String name) {
+
+        for (CopyStrategy strategy : new CopyStrategy[]{STREAM, POOLED, CHANNEL, MAPPED}) {
+            if (strategy.getName().equals(name)) {
+                return strategy;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown copy strategy " + name);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils.copy;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Forma de pasar los datos de un archivo a otro
+ */
+public interface CopyStrategy {
+
+    /**
+     * Nombre con el que se identifica la estrategia
+     */
+    String getName();
+
+
+    /**
+     * Copia los bytes indicados del canal de entrada, desde la posición indicada,
+     * en la posición actual del canal de salida. Si se indica un digest se añaden
+     * a la huella los bytes copiados. Devuelve el número de bytes copiados, que sólo
+     * será menor que el pedido si el archivo de entrada se acaba antes.
+     */
+    long copy(FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException;
+
+}
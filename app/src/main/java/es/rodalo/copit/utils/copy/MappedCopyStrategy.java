@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils.copy;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Copia proyectando en memoria el archivo de entrada por ventanas
+ * y escribiendo cada ventana de una vez en el canal de salida.
+ * Si no se puede proyectar (falta espacio de direcciones) se copia el resto con la estrategia indicada.
+ * Antes de proyectar cada ventana se comprueba que el archivo de entrada la sigue conteniendo entera:
+ * si se recortara con la ventana ya proyectada el proceso recibiría SIGBUS, que no se puede capturar.
+ */
+class MappedCopyStrategy implements CopyStrategy {
+
+    static final String NAME = "mmap";
+
+    /**
+     * En 32 bits el espacio de direcciones es de unos 3 GB compartidos con el resto de la aplicación,
+     * así que las ventanas son más pequeñas
+     */
+    static final long WINDOW_SIZE = is64Bit() ? 64 * 1024 * 1024 : 16 * 1024 * 1024;
+
+    private final CopyStrategy fallback;
+
+
+    MappedCopyStrategy(CopyStrategy fallback) {
+        this.fallback = fallback;
+    }
+
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+
+    @Override
+    public long copy(FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException {
+
+        long available = Math.max(0, Math.min(count, in.size() - position));
+        long done = 0;
+
+        while (done < available) {
+
+            long window = Math.min(WINDOW_SIZE, available - done);
+
+            if (in.size() < position + done + window) {
+                throw new IOException("Source file changed while copying");
+            }
+
+            MappedByteBuffer mapped;
+
+            try {
+
+                mapped = in.map(FileChannel.MapMode.READ_ONLY, position + done, window);
+
+            } catch (IOException e) {
+
+                // "Map failed": no queda espacio de direcciones libre para la ventana
+
+                return done + fallback.copy(in, out, position + done, available - done, digest);
+            }
+
+            if (digest != null) {
+                digest.update(mapped.duplicate());
+            }
+
+            while (mapped.hasRemaining()) {
+                out.write(mapped);
+            }
+
+            done += window;
+        }
+
+        return done;
+    }
+
+
+    /**
+     * Indica si el proceso tiene espacio de direcciones de 64 bits
+     */
+    static boolean is64Bit() {
+
+        String arch = System.getProperty("os.arch", "");
+
+        return arch.contains("64");
+    }
+}
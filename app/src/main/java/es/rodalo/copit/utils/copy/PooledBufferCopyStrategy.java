@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils.copy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Copia a través de buffers nativos que se reutilizan entre copias,
+ * de forma que no se reservan buffers nuevos por cada archivo o bloque
+ */
+class PooledBufferCopyStrategy implements CopyStrategy {
+
+    static final String NAME = "pooled";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private final BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+
+    @Override
+    public long copy(FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException {
+
+        ByteBuffer buffer = acquire();
+
+        try {
+
+            long done = 0;
+
+            while (done < count) {
+
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - done));
+
+                int read = in.read(buffer, position + done);
+
+                if (read == -1) {
+                    break;
+                }
+
+                buffer.flip();
+
+                if (digest != null) {
+                    buffer.mark();
+                    digest.update(buffer);
+                    buffer.reset();
+                }
+
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+
+                done += read;
+            }
+
+            return done;
+
+        } finally {
+
+            release(buffer);
+        }
+    }
+
+
+    /**
+     * Obtiene un buffer libre o crea uno nuevo si no hay
+     */
+    private ByteBuffer acquire() {
+
+        ByteBuffer buffer = pool.poll();
+
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+
+    /**
+     * Devuelve el buffer para que lo use otra copia (se descarta si ya hay suficientes)
+     */
+    private void release(ByteBuffer buffer) {
+        pool.offer(buffer);
+    }
+}
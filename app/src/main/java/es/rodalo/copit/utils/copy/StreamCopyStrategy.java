@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.utils.copy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Copia clásica leyendo y escribiendo a través de un array en memoria,
+ * como hacen los streams de java.io
+ */
+class StreamCopyStrategy implements CopyStrategy {
+
+    static final String NAME = "stream";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+
+    @Override
+    public long copy(FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException {
+
+        byte[] bytes = new byte[(int) Math.min(BUFFER_SIZE, Math.max(count, 1))];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        long done = 0;
+
+        while (done < count) {
+
+            buffer.clear();
+            buffer.limit((int) Math.min(bytes.length, count - done));
+
+            int read = in.read(buffer, position + done);
+
+            if (read == -1) {
+                break;
+            }
+
+            if (digest != null) {
+                digest.update(bytes, 0, read);
+            }
+
+            buffer.flip();
+
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+
+            done += read;
+        }
+
+        return done;
+    }
+}
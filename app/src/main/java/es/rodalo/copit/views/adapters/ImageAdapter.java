@@ -24,21 +24,38 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
+import es.rodalo.copit.utils.RecentImages;
 import es.rodalo.copit.views.widgets.SquaredImageView;
 
 /**
- * Muestra las fotos en grid usando la librería Glide
+ * Muestra las fotos en grid usando la librería Glide.
+ * Las fotos se piden por páginas según se acerca el final de la lista.
  */
 public class ImageAdapter extends BaseAdapter {
 
+    /**
+     * Fotos que se piden cada vez, unas cuantas pantallas del grid
+     */
+    private static final int PAGE_SIZE = 60;
+
+    /**
+     * Cuántas fotos antes del final se pide la siguiente página
+     */
+    private static final int PREFETCH_ITEMS = 20;
+
     private final Context context;
-    private final List<File> files;
+    private final RecentImages images;
+    private final List<File> files = new ArrayList<>();
+
+    private boolean loading;
 
-    public ImageAdapter(Context context, List<File> files) {
+    public ImageAdapter(Context context, RecentImages images) {
         this.context = context;
-        this.files = files;
+        this.images = images;
+        this.files.addAll(images.nextPage(PAGE_SIZE));
     }
 
     @Override
@@ -66,6 +83,10 @@ public class ImageAdapter extends BaseAdapter {
             view.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
         }
 
+        if (position >= files.size() - PREFETCH_ITEMS) {
+            loadNextPage(parent);
+        }
+
         File image = getItem(position);
 
         Glide.with(context)
@@ -77,4 +98,26 @@ public class ImageAdapter extends BaseAdapter {
         return view;
     }
 
+
+    /**
+     * Añade la siguiente página de fotos. No se puede cambiar la lista mientras
+     * el grid está pidiendo vistas, así que se hace justo después.
+     */
+    private void loadNextPage(View parent) {
+
+        if (loading || !images.hasMore()) {
+            return;
+        }
+
+        loading = true;
+
+        parent.post(new Runnable() {
+            @Override
+            public void run() {
+                files.addAll(images.nextPage(PAGE_SIZE));
+                loading = false;
+                notifyDataSetChanged();
+            }
+        });
+    }
 }
@@ -0,0 +1,165 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import es.rodalo.copit.utils.CancellationToken;
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.CopyProgress;
+import es.rodalo.copit.utils.Error;
+import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.ResumableCopy;
+import es.rodalo.copit.utils.copy.CopyStrategies;
+import es.rodalo.copit.utils.copy.CopyStrategy;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests relacionados con la cancelación de una copia en marcha
+ */
+public class CancelUnitTest {
+
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_stop_before_next_chunk_when_cancelled() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        createVideo(new File(source, "video.mp4"), 3 * CHUNK_SIZE);
+
+        CancellationToken cancellation = new CancellationToken();
+        CancellingStrategy strategy = new CancellingStrategy(cancellation);
+
+        assertCancelled(new CopyEngine().cancellation(cancellation).strategy(strategy), source, dest, null);
+
+        assertThat(strategy.calls, is(1));
+        assertTrue("cancel took " + strategy.getMillisSinceCancel() + "ms", strategy.getMillisSinceCancel() < 1000);
+        assertThat(new File(dest, "video.mp4").exists(), is(false));
+    }
+
+
+    @Test
+    public void should_remove_partial_files_when_cancelled() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        createVideo(new File(source, "video.mp4"), 5 * CHUNK_SIZE);
+
+        CancellationToken cancellation = new CancellationToken();
+
+        assertCancelled(new CopyEngine().cancellation(cancellation).strategy(new CancellingStrategy(cancellation)), source, dest, null);
+
+        File copy = new File(dest, "video.mp4");
+
+        assertThat(copy.exists(), is(false));
+        assertThat(new File(copy.getPath() + ResumableCopy.PARTIAL_SUFFIX).exists(), is(false));
+        assertThat(new File(copy.getPath() + ResumableCopy.CHECKPOINT_SUFFIX).exists(), is(false));
+    }
+
+
+    @Test
+    public void should_stop_between_files_when_cancelled() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        int files = 200;
+
+        for (int i = 0; i < files; i++) {
+            FileUtils.writeStringToFile(new File(source, "image" + i + ".jpg"), "image" + i);
+        }
+
+        final CancellationToken cancellation = new CancellationToken();
+
+        assertCancelled(new CopyEngine().cancellation(cancellation), source, dest, new Files.CopyProgressCallback() {
+            @Override
+            public void onProgress(CopyProgress progress) {
+                if (progress.files >= 10) {
+                    cancellation.cancel();
+                }
+            }
+        });
+
+        assertThat(dest.list().length, is(10));
+    }
+
+
+    private void assertCancelled(CopyEngine engine, File source, File dest, Files.CopyProgressCallback callback) throws Exception {
+
+        try {
+
+            Files.copyFolder(source, dest, engine, callback);
+
+        } catch (Error.CancelledException e) {
+
+            return;
+        }
+
+        throw new AssertionError("Copy should have been cancelled");
+    }
+
+
+    private void createVideo(File video, int size) throws IOException {
+
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+
+        FileUtils.writeByteArrayToFile(video, content);
+    }
+
+
+    /**
+     * Estrategia que cancela la copia mientras copia el primer bloque, como si el usuario
+     * pulsara el botón en ese momento
+     */
+    private static class CancellingStrategy implements CopyStrategy {
+
+        private final CancellationToken cancellation;
+
+        int calls;
+        long cancelTime;
+
+        CancellingStrategy(CancellationToken cancellation) {
+            this.cancellation = cancellation;
+        }
+
+        long getMillisSinceCancel() {
+            return (System.nanoTime() - cancelTime) / 1000000;
+        }
+
+        @Override
+        public String getName() {
+            return "cancelling";
+        }
+
+        @Override
+        public long copy(FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException {
+
+            calls += 1;
+
+            if (!cancellation.isCancelled()) {
+                cancellation.cancel();
+                cancelTime = System.nanoTime();
+            }
+
+            return CopyStrategies.POOLED.copy(in, out, position, count, digest);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import es.rodalo.copit.utils.copy.CopyStrategies;
+import es.rodalo.copit.utils.copy.CopyStrategy;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeThat;
+
+/**
+ * Tests relacionados con las distintas estrategias de copia
+ */
+public class CopyStrategyUnitTest {
+
+    private static final String[] STRATEGIES = {"stream", "pooled", "channel", "mmap"};
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_copy_the_same_content_with_every_strategy() throws Exception {
+
+        File video = createVideo(3 * 1024 * 1024 + 17);
+
+        for (String name : STRATEGIES) {
+
+            File copy = new File(tempFolder.getRoot(), name + ".mp4");
+
+            copy(CopyStrategies.byName(name), video, copy, 100, video.length() - 100, null);
+
+            byte[] expected = Arrays.copyOfRange(FileUtils.readFileToByteArray(video), 100, (int) video.length());
+
+            assertThat(name, Arrays.equals(FileUtils.readFileToByteArray(copy), expected), is(true));
+        }
+    }
+
+
+    @Test
+    public void should_hash_the_copied_content_with_every_strategy() throws Exception {
+
+        File video = createVideo(1024 * 1024 + 3);
+
+        byte[] expected = MessageDigest.getInstance("SHA-1").digest(FileUtils.readFileToByteArray(video));
+
+        for (String name : STRATEGIES) {
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+            copy(CopyStrategies.byName(name), video, new File(tempFolder.getRoot(), name + ".mp4"), 0, video.length(), digest);
+
+            assertThat(name, Arrays.equals(digest.digest(), expected), is(true));
+        }
+    }
+
+
+    @Test
+    public void should_stop_at_end_of_file() throws Exception {
+
+        File video = createVideo(1000);
+
+        for (String name : STRATEGIES) {
+
+            long copied = copy(CopyStrategies.byName(name), video, new File(tempFolder.getRoot(), name + ".mp4"), 500, 1000, null);
+
+            assertThat(name, copied, is(500L));
+        }
+    }
+
+
+    @Test
+    public void should_map_very_large_files_on_internal_storage() throws Exception {
+
+        assumeThat(System.getProperty("os.arch").contains("64"), is(true));
+
+        long size = 2L * 1024 * 1024 * 1024;
+
+        assertThat(CopyStrategies.select(size, false), is(CopyStrategies.MAPPED));
+        assertThat(CopyStrategies.select(size, true), is(CopyStrategies.POOLED));
+        assertThat(CopyStrategies.select(100 * 1024 * 1024, false), is(CopyStrategies.CHANNEL));
+    }
+
+
+    @Test
+    public void should_request_whole_windows_when_mapping() throws Exception {
+
+        long chunkSize = 8 * 1024 * 1024;
+
+        assertThat(CopyStrategies.getChunkSize(CopyStrategies.MAPPED, chunkSize) >= 16 * 1024 * 1024, is(true));
+        assertThat(CopyStrategies.getChunkSize(CopyStrategies.CHANNEL, chunkSize), is(chunkSize));
+    }
+
+
+    private File createVideo(int size) throws IOException {
+
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+
+        File video = new File(tempFolder.getRoot(), "video.mp4");
+        FileUtils.writeByteArrayToFile(video, content);
+
+        return video;
+    }
+
+
+    private long copy(CopyStrategy strategy, File src, File dest, long position, long count, MessageDigest digest) throws IOException {
+
+        FileInputStream input = null;
+        FileOutputStream output = null;
+
+        try {
+
+            input = new FileInputStream(src);
+            output = new FileOutputStream(dest);
+
+            return strategy.copy(input.getChannel(), output.getChannel(), position, count, digest);
+
+        } finally {
+
+            IOUtils.closeQuietly(output);
+            IOUtils.closeQuietly(input);
+        }
+    }
+}
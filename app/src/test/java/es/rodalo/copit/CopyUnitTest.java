@@ -1,14 +1,26 @@
 package es.rodalo.copit;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.CopyPlan;
+import es.rodalo.copit.utils.CopyProgress;
 import es.rodalo.copit.utils.Error;
+import es.rodalo.copit.utils.FileAllocator;
 import es.rodalo.copit.utils.Files;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -105,6 +117,266 @@ public class CopyUnitTest {
     }
 
 
+    @Test
+    public void should_copy_large_files_in_several_chunks() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        byte[] content = new byte[9 * 1024 * 1024 + 123];
+        new Random(1).nextBytes(content);
+
+        File video = new File(source, "video1.mp4");
+        FileUtils.writeByteArrayToFile(video, content);
+        assertThat(video.setLastModified(1000000000000L), is(true));
+
+        File copy = new File(new File(dest, "subdir"), "video1.mp4");
+
+        Files.copyFile(video, copy);
+
+        assertThat(FileUtils.contentEquals(video, copy), is(true));
+        assertThat(copy.lastModified(), is(video.lastModified()));
+    }
+
+
+    @Test
+    public void should_replace_longer_previous_copy() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        File image = new File(source, "image1.jpg");
+        File copy = new File(dest, "image1.jpg");
+
+        FileUtils.writeStringToFile(image, "edited");
+        FileUtils.writeStringToFile(copy, "original image, much longer");
+
+        Files.copyFolder(source, dest, null);
+
+        assertThat(FileUtils.readFileToString(copy), is("edited"));
+    }
+
+
+    @Test(expected = Error.NotEnoughSpaceException.class)
+    public void should_throw_exception_when_there_is_not_enough_space() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        FileUtils.writeStringToFile(new File(source, "image1.jpg"), "image1");
+
+        // Archivo disperso: ocupa poco en disco pero su tamaño no cabe en el destino
+
+        RandomAccessFile video = new RandomAccessFile(new File(source, "video1.mp4"), "rw");
+        video.setLength(dest.getUsableSpace() + 1024L * 1024 * 1024);
+        video.close();
+
+        try {
+
+            Files.copyFolder(source, dest, null);
+
+        } finally {
+
+            assertThat(dest.list().length, is(0));
+        }
+    }
+
+
+    @Test
+    public void should_copy_the_same_tree_with_several_workers() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File sequentialDest = tempFolder.newFolder("test-dest-sequential");
+        File parallelDest = tempFolder.newFolder("test-dest-parallel");
+
+        createTree(source, 3, 6);
+
+        Files.copyFolder(source, sequentialDest, CopyEngine.SEQUENTIAL, null);
+        Files.copyFolder(source, parallelDest, 4, null);
+
+        assertSameTree(source, sequentialDest);
+        assertSameTree(sequentialDest, parallelDest);
+    }
+
+
+    @Test
+    public void should_report_every_file_when_copying_with_several_workers() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        createTree(source, 2, 4);
+
+        final CopyProgress[] last = new CopyProgress[1];
+
+        Files.copyFolder(source, dest, 3, new Files.CopyProgressCallback() {
+            @Override
+            public void onProgress(CopyProgress progress) {
+                last[0] = progress;
+            }
+        });
+
+        assertThat(last[0].totalFiles, is(FileUtils.listFiles(source, null, true).size()));
+        assertThat(last[0].files, is(last[0].totalFiles));
+        assertThat(last[0].bytes, is(FileUtils.sizeOfDirectory(source)));
+        assertThat(last[0].isComplete(), is(true));
+    }
+
+
+    @Test
+    public void should_report_monotonic_progress_across_subfolders() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        createTree(source, 3, 3);
+
+        final List<CopyProgress> reported = new ArrayList<>();
+
+        Files.copyFolder(source, dest, new Files.CopyProgressCallback() {
+            @Override
+            public void onProgress(CopyProgress progress) {
+                reported.add(progress);
+            }
+        });
+
+        long totalBytes = FileUtils.sizeOfDirectory(source);
+
+        for (int i = 1; i < reported.size(); i++) {
+            assertThat(reported.get(i).files >= reported.get(i - 1).files, is(true));
+            assertThat(reported.get(i).bytes >= reported.get(i - 1).bytes, is(true));
+            assertThat(reported.get(i).totalBytes, is(totalBytes));
+        }
+
+        assertThat(reported.get(reported.size() - 1).bytes, is(totalBytes));
+    }
+
+
+    @Test
+    public void should_plan_only_files_not_yet_copied() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        createTree(source, 2, 2);
+
+        Files.copyFolder(source, dest, null);
+
+        FileUtils.writeStringToFile(new File(source, "new-image.jpg"), "new image");
+
+        CopyPlan plan = new CopyPlan();
+        new CopyEngine().plan(source, dest, plan);
+
+        assertThat(plan.getPendingFiles(), is(1));
+        assertThat(plan.getPendingBytes(), is((long) "new image".length()));
+        assertThat(plan.getUpToDateFiles(), is(6));
+        assertThat(plan.getTotalBytes(), is(FileUtils.sizeOfDirectory(source)));
+    }
+
+
+    @Test
+    public void should_copy_newest_files_first_when_interrupted() throws Exception {
+
+        File camera = tempFolder.newFolder("Camera");
+        File whatsapp = tempFolder.newFolder("WhatsApp");
+        File backup = tempFolder.newFolder("test-backup");
+        File cameraBackup = new File(backup, "Camera");
+        File whatsappBackup = new File(backup, "WhatsApp");
+
+        assertThat(cameraBackup.mkdir(), is(true));
+        assertThat(whatsappBackup.mkdir(), is(true));
+
+        // Fechas desordenadas respecto a los nombres y repartidas entre los dos orígenes
+
+        Random random = new Random(3);
+        List<File> newest = new ArrayList<>();
+        int files = 20;
+        long now = System.currentTimeMillis() / 1000 * 1000;
+
+        for (int i = 0; i < files; i++) {
+
+            boolean fromCamera = random.nextBoolean();
+
+            File image = new File(fromCamera ? camera : whatsapp, "image" + random.nextInt(100000) + "-" + i + ".jpg");
+            FileUtils.writeStringToFile(image, "image" + i);
+
+            long age = (long) ((i * 7) % files) * 3600 * 1000;
+            assertThat(image.setLastModified(now - age), is(true));
+
+            if (age < 5 * 3600 * 1000) {
+                newest.add(new File(fromCamera ? cameraBackup : whatsappBackup, image.getName()));
+            }
+        }
+
+        final int interruptAfter = newest.size();
+
+        CopyEngine engine = new CopyEngine().newestFirst(true);
+
+        CopyPlan plan = new CopyPlan();
+        engine.plan(camera, cameraBackup, plan);
+        engine.plan(whatsapp, whatsappBackup, plan);
+
+        try {
+
+            engine.execute(plan, new Files.CopyProgressCallback() {
+                @Override
+                public void onProgress(CopyProgress progress) {
+                    if (progress.files >= interruptAfter) {
+                        throw new IllegalStateException("USB unplugged");
+                    }
+                }
+            });
+
+            throw new AssertionError("Copy should have been interrupted");
+
+        } catch (IllegalStateException ignore) {
+        }
+
+        for (File copied : newest) {
+            assertThat(copied.getName(), copied.exists(), is(true));
+        }
+
+        assertThat(cameraBackup.list().length + whatsappBackup.list().length, is(interruptAfter));
+    }
+
+
+    @Test
+    public void should_reserve_space_without_writing_the_file_twice() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        File image = new File(source, "image.jpg");
+        FileUtils.writeStringToFile(image, "image");
+
+        // Un temporal más largo de una copia anterior no debe dejar restos
+
+        FileUtils.writeStringToFile(new File(dest, "image.jpg" + Files.TEMP_SUFFIX), "leftover of a longer copy");
+
+        final List<Long> reserved = new ArrayList<>();
+
+        Files.setAllocator(new FileAllocator() {
+            @Override
+            public boolean allocate(FileDescriptor fd, long size) {
+                reserved.add(size);
+                return false;
+            }
+        });
+
+        try {
+
+            Files.copyFolder(source, dest, null);
+
+        } finally {
+
+            Files.setAllocator(null);
+        }
+
+        assertThat(reserved, is(Collections.singletonList(image.length())));
+        assertThat(FileUtils.readFileToString(new File(dest, "image.jpg")), is("image"));
+    }
+
+
     @Test
     public void should_count_images_and_videos_in_subdirectories() throws Exception {
 
@@ -138,6 +410,54 @@ public class CopyUnitTest {
     }
 
 
+    private void createTree(File directory, int depth, int filesPerFolder) throws IOException {
+
+        Random random = new Random(depth);
+
+        for (int i = 0; i < filesPerFolder; i++) {
+
+            byte[] content = new byte[random.nextInt(64 * 1024)];
+            random.nextBytes(content);
+
+            File file = new File(directory, "image" + i + ".jpg");
+            FileUtils.writeByteArrayToFile(file, content);
+
+            assertThat(file.setLastModified(1000000000000L + i * 1000L), is(true));
+        }
+
+        if (depth > 1) {
+            for (int i = 0; i < 2; i++) {
+                createTree(new File(directory, "folder" + i), depth - 1, filesPerFolder);
+            }
+        }
+    }
+
+
+    private void assertSameTree(File expected, File actual) throws IOException {
+
+        String[] expectedNames = expected.list();
+        String[] actualNames = actual.list();
+
+        Arrays.sort(expectedNames);
+        Arrays.sort(actualNames);
+
+        assertThat(Arrays.asList(actualNames), is(Arrays.asList(expectedNames)));
+
+        for (String name : expectedNames) {
+
+            File expectedFile = new File(expected, name);
+            File actualFile = new File(actual, name);
+
+            if (expectedFile.isDirectory()) {
+                assertSameTree(expectedFile, actualFile);
+            } else {
+                assertThat(FileUtils.contentEquals(expectedFile, actualFile), is(true));
+                assertThat(actualFile.lastModified(), is(expectedFile.lastModified()));
+            }
+        }
+    }
+
+
     private File[] createFiles(File ... files) throws IOException {
 
         for (File file : files) {
@@ -0,0 +1,221 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import es.rodalo.copit.utils.CancellationToken;
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.DeltaCopy;
+import es.rodalo.copit.utils.Files;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests relacionados con la actualización por bloques de los archivos grandes que han cambiado
+ */
+public class DeltaUnitTest {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int VIDEO_SIZE = 20 * 1024 * 1024;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_rewrite_only_changed_blocks() throws Exception {
+
+        File video = createVideo();
+        File copy = new File(tempFolder.getRoot(), "copy.mp4");
+
+        FileUtils.copyFile(video, copy);
+
+        RandomAccessFile edit = new RandomAccessFile(video, "rw");
+        edit.seek(VIDEO_SIZE / 2 + 10);
+        edit.write("new metadata".getBytes("UTF-8"));
+        edit.close();
+
+        DeltaCopy delta = new DeltaCopy(video, copy);
+
+        assertThat(delta.copy(null), is(true));
+        assertThat(delta.getBytesWritten(), is((long) BLOCK_SIZE));
+        assertThat(FileUtils.contentEquals(video, copy), is(true));
+        assertThat(copy.lastModified(), is(video.lastModified()));
+    }
+
+
+    @Test
+    public void should_write_only_the_end_of_a_longer_recording() throws Exception {
+
+        File video = createVideo();
+        File copy = new File(tempFolder.getRoot(), "copy.mp4");
+
+        FileUtils.copyFile(video, copy);
+
+        byte[] more = new byte[BLOCK_SIZE * 3];
+        new Random(2).nextBytes(more);
+        FileUtils.writeByteArrayToFile(video, more, true);
+
+        DeltaCopy delta = new DeltaCopy(video, copy);
+
+        assertThat(delta.copy(null), is(true));
+        assertThat(delta.getBytesWritten(), is((long) more.length));
+        assertThat(FileUtils.contentEquals(video, copy), is(true));
+    }
+
+
+    @Test
+    public void should_update_shorter_and_shifted_files() throws Exception {
+
+        File video = createVideo();
+        File copy = new File(tempFolder.getRoot(), "copy.mp4");
+
+        FileUtils.copyFile(video, copy);
+
+        byte[] content = FileUtils.readFileToByteArray(video);
+        byte[] shifted = new byte[content.length - 1000];
+        System.arraycopy(content, 1000, shifted, 0, shifted.length);
+        FileUtils.writeByteArrayToFile(video, shifted);
+
+        assertThat(new DeltaCopy(video, copy).copy(null), is(true));
+        assertThat(FileUtils.contentEquals(video, copy), is(true));
+    }
+
+
+    @Test
+    public void should_update_changed_videos_when_copying_folder() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        File video = createVideo();
+        FileUtils.moveFileToDirectory(video, source, false);
+        video = new File(source, video.getName());
+
+        Files.copyFolder(source, dest, new CopyEngine().deltaSync(true), null);
+
+        RandomAccessFile edit = new RandomAccessFile(video, "rw");
+        edit.seek(100);
+        edit.write(1);
+        edit.close();
+
+        assertThat(video.setLastModified(1000000000000L), is(true));
+
+        Files.copyFolder(source, dest, new CopyEngine().deltaSync(true), null);
+
+        File copy = new File(dest, video.getName());
+
+        assertThat(FileUtils.contentEquals(video, copy), is(true));
+        assertThat(copy.lastModified(), is(video.lastModified()));
+    }
+
+
+    @Test
+    public void should_keep_previous_version_when_cancelled_midway() throws Exception {
+
+        File video = createVideo();
+        File copy = new File(tempFolder.getRoot(), "copy.mp4");
+
+        FileUtils.copyFile(video, copy);
+        assertThat(copy.setLastModified(1000000000000L), is(true));
+
+        byte[] original = FileUtils.readFileToByteArray(copy);
+
+        byte[] edited = new byte[VIDEO_SIZE];
+        new Random(3).nextBytes(edited);
+        FileUtils.writeByteArrayToFile(video, edited);
+
+        // Se cancela después de reescribir el primer tramo
+
+        CancellationToken cancellation = new CancellationToken() {
+
+            int checks = 0;
+
+            @Override
+            public boolean isCancelled() {
+                return ++checks > 1;
+            }
+        };
+
+        final long[] reported = {0};
+
+        try {
+
+            new DeltaCopy(video, copy).cancellation(cancellation).copy(new Files.CopyListener() {
+                @Override
+                public void onBytesCopied(long count) {
+                    reported[0] += count;
+                }
+            });
+
+            fail("The update should have been cancelled");
+
+        } catch (InterruptedIOException expected) {
+        }
+
+        assertThat(Arrays.equals(FileUtils.readFileToByteArray(copy), original), is(true));
+        assertThat(copy.lastModified(), is(1000000000000L));
+        assertThat(new File(copy.getPath() + DeltaCopy.JOURNAL_SUFFIX).exists(), is(false));
+        assertThat(reported[0], is(0L));
+    }
+
+
+    @Test
+    public void should_keep_previous_version_of_longer_and_shorter_files_when_cancelled() throws Exception {
+
+        for (int size : new int[]{VIDEO_SIZE + 3 * BLOCK_SIZE, VIDEO_SIZE - 3 * BLOCK_SIZE - 100}) {
+
+            File video = createVideo();
+            File copy = new File(tempFolder.getRoot(), "copy.mp4");
+
+            FileUtils.copyFile(video, copy);
+
+            byte[] original = FileUtils.readFileToByteArray(copy);
+
+            byte[] edited = new byte[size];
+            new Random(size).nextBytes(edited);
+            FileUtils.writeByteArrayToFile(video, edited);
+
+            CancellationToken cancellation = new CancellationToken() {
+
+                int checks = 0;
+
+                @Override
+                public boolean isCancelled() {
+                    return ++checks > 2;
+                }
+            };
+
+            try {
+                new DeltaCopy(video, copy).cancellation(cancellation).copy(null);
+                fail("The update should have been cancelled");
+            } catch (InterruptedIOException expected) {
+            }
+
+            assertThat(Arrays.equals(FileUtils.readFileToByteArray(copy), original), is(true));
+        }
+    }
+
+
+    private File createVideo() throws IOException {
+
+        byte[] content = new byte[VIDEO_SIZE];
+        new Random(1).nextBytes(content);
+
+        File video = new File(tempFolder.getRoot(), "video.mp4");
+        FileUtils.writeByteArrayToFile(video, content);
+
+        return video;
+    }
+}
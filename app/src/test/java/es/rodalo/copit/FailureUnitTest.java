@@ -0,0 +1,226 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.CopyFailures;
+import es.rodalo.copit.utils.CopyPlan;
+import es.rodalo.copit.utils.CopyProgress;
+import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.copy.CopyStrategies;
+import es.rodalo.copit.utils.copy.CopyStrategy;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relacionados con los archivos que no se pueden copiar
+ */
+public class FailureUnitTest {
+
+    private static final String BROKEN = "broken image";
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_copy_the_rest_of_files_when_one_fails() throws Exception {
+
+        File source = createSource();
+        File dest = tempFolder.newFolder("test-dest");
+
+        CopyFailures failures = new CopyFailures();
+        final CopyProgress[] last = new CopyProgress[1];
+
+        Files.copyFolder(source, dest, new CopyEngine().failures(failures).strategy(new FailingStrategy(Integer.MAX_VALUE)),
+                new Files.CopyProgressCallback() {
+                    @Override
+                    public void onProgress(CopyProgress progress) {
+                        last[0] = progress;
+                    }
+                });
+
+        assertThat(failures.size(), is(1));
+        assertThat(failures.getFailures().get(0).srcFile, is(new File(source, "image2.jpg")));
+        assertThat(failures.getFailures().get(0).cause, is("Read error"));
+
+        assertThat(new File(dest, "image1.jpg").exists(), is(true));
+        assertThat(new File(dest, "image2.jpg").exists(), is(false));
+        assertThat(new File(dest, "image3.jpg").exists(), is(true));
+
+        assertThat(last[0].isComplete(), is(true));
+    }
+
+
+    @Test(expected = IOException.class)
+    public void should_stop_at_first_error_without_failure_list() throws Exception {
+
+        Files.copyFolder(createSource(), tempFolder.newFolder("test-dest"),
+                new CopyEngine().strategy(new FailingStrategy(Integer.MAX_VALUE)), null);
+    }
+
+
+    @Test
+    public void should_retry_transient_errors() throws Exception {
+
+        File source = createSource();
+        File dest = tempFolder.newFolder("test-dest");
+
+        CopyFailures failures = new CopyFailures();
+        FailingStrategy strategy = new FailingStrategy(2);
+
+        Files.copyFolder(source, dest, new CopyEngine().failures(failures).retries(2).strategy(strategy), null);
+
+        assertThat(failures.isEmpty(), is(true));
+        assertThat(strategy.failures.get(), is(2));
+        assertThat(FileUtils.readFileToString(new File(dest, "image2.jpg")), is(BROKEN));
+    }
+
+
+    @Test
+    public void should_not_move_progress_back_when_retrying() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        FileUtils.writeByteArrayToFile(new File(source, "video.mp4"), new byte[20 * 1024 * 1024]);
+
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        CopyStrategy strategy = new CopyStrategy() {
+
+            @Override
+            public String getName() {
+                return "failing-middle";
+            }
+
+            @Override
+            public long copy(FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException {
+
+                if (position >= 16 * 1024 * 1024 && failed.compareAndSet(false, true)) {
+                    throw new IOException("Read error");
+                }
+
+                return CopyStrategies.POOLED.copy(in, out, position, count, digest);
+            }
+        };
+
+        final long[] bytes = {0};
+        final boolean[] backwards = {false};
+
+        Files.copyFolder(source, dest, new CopyEngine().failures(new CopyFailures()).retries(1).strategy(strategy),
+                new Files.CopyProgressCallback() {
+                    @Override
+                    public void onProgress(CopyProgress progress) {
+                        backwards[0] |= progress.bytes < bytes[0];
+                        bytes[0] = progress.bytes;
+                    }
+                });
+
+        assertThat(failed.get(), is(true));
+        assertThat(backwards[0], is(false));
+        assertThat(bytes[0], is(20L * 1024 * 1024));
+    }
+
+
+    @Test
+    public void should_not_retry_missing_files() throws Exception {
+
+        File source = createSource();
+        File dest = tempFolder.newFolder("test-dest");
+
+        CopyFailures failures = new CopyFailures();
+        FailingStrategy strategy = new FailingStrategy(Integer.MAX_VALUE);
+        strategy.missing = true;
+
+        Files.copyFolder(source, dest, new CopyEngine().failures(failures).retries(2).strategy(strategy), null);
+
+        assertThat(failures.size(), is(1));
+        assertThat(strategy.failures.get(), is(1));
+    }
+
+
+    @Test
+    public void should_retry_only_failed_files() throws Exception {
+
+        File source = createSource();
+        File dest = tempFolder.newFolder("test-dest");
+
+        CopyFailures failures = new CopyFailures();
+
+        Files.copyFolder(source, dest, new CopyEngine().failures(failures).strategy(new FailingStrategy(Integer.MAX_VALUE)), null);
+
+        failures.save(dest);
+
+        CopyPlan plan = CopyFailures.load(dest).toPlan();
+
+        assertThat(plan.getPendingFiles(), is(1));
+        assertThat(plan.getItems().get(0).destFile, is(new File(dest, "image2.jpg")));
+
+        CopyFailures retried = new CopyFailures();
+
+        new CopyEngine().failures(retried).execute(plan, null);
+        retried.save(dest);
+
+        assertThat(FileUtils.readFileToString(new File(dest, "image2.jpg")), is(BROKEN));
+        assertThat(new File(dest, CopyFailures.FILE_NAME).exists(), is(false));
+    }
+
+
+    private File createSource() throws IOException {
+
+        File source = tempFolder.newFolder("test-source");
+
+        FileUtils.writeStringToFile(new File(source, "image1.jpg"), "image1");
+        FileUtils.writeStringToFile(new File(source, "image2.jpg"), BROKEN);
+        FileUtils.writeStringToFile(new File(source, "image3.jpg"), "image3");
+
+        return source;
+    }
+
+
+    /**
+     * Estrategia que falla al copiar el archivo dañado las veces indicadas
+     */
+    private static class FailingStrategy implements CopyStrategy {
+
+        final AtomicInteger failures = new AtomicInteger();
+        final int maxFailures;
+
+        volatile boolean missing;
+
+        FailingStrategy(int maxFailures) {
+            this.maxFailures = maxFailures;
+        }
+
+        @Override
+        public String getName() {
+            return "failing";
+        }
+
+        @Override
+        public long copy(FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException {
+
+            if (in.size() == BROKEN.length() && failures.get() < maxFailures) {
+
+                failures.incrementAndGet();
+
+                throw missing ? new FileNotFoundException("Missing") : new IOException("Read error");
+            }
+
+            return CopyStrategies.POOLED.copy(in, out, position, count, digest);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.rodalo.copit.utils.FileEntry;
+import es.rodalo.copit.utils.FileStat;
+import es.rodalo.copit.utils.MediaIndex;
+import es.rodalo.copit.utils.MediaSnapshot;
+import es.rodalo.copit.utils.TreeWalker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relacionados con el índice de los archivos de los orígenes
+ */
+public class IndexUnitTest {
+
+    private static final long OLD_DATE = 1000000000000L;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_read_only_changed_folders() throws Exception {
+
+        File camera = createSource();
+        List<File> roots = Collections.singletonList(camera);
+
+        CountingStat stat = new CountingStat();
+        MediaIndex index = MediaIndex.load(new File(tempFolder.getRoot(), MediaIndex.FILE_NAME), new TreeWalker(stat));
+
+        index.refresh(roots);
+
+        assertThat(stat.calls.get(), is(4));
+
+        index.refresh(roots);
+
+        assertThat(stat.calls.get(), is(4));
+
+        FileUtils.writeStringToFile(new File(camera, "2017/image3.jpg"), "image3");
+        assertThat(new File(camera, "2017").setLastModified(OLD_DATE + 1000), is(true));
+
+        index.refresh(roots);
+
+        assertThat(stat.calls.get(), is(7));
+        assertThat(MediaSnapshot.scan(roots, index.getWalker()).getImageCount(), is(3));
+    }
+
+
+    @Test
+    public void should_forget_deleted_folders() throws Exception {
+
+        File camera = createSource();
+        List<File> roots = Collections.singletonList(camera);
+
+        MediaIndex index = MediaIndex.load(new File(tempFolder.getRoot(), MediaIndex.FILE_NAME), new TreeWalker());
+
+        index.refresh(roots);
+
+        FileUtils.deleteDirectory(new File(camera, "2017"));
+        assertThat(camera.setLastModified(OLD_DATE + 1000), is(true));
+
+        index.refresh(roots);
+
+        assertThat(index.count(roots).files, is(1));
+        assertThat(index.list(new File(camera, "2017")).isEmpty(), is(true));
+    }
+
+
+    @Test
+    public void should_keep_backup_state_of_unchanged_files() throws Exception {
+
+        File camera = createSource();
+        List<File> roots = Collections.singletonList(camera);
+        File indexFile = new File(tempFolder.getRoot(), MediaIndex.FILE_NAME);
+
+        MediaIndex index = MediaIndex.load(indexFile, new TreeWalker());
+
+        index.refresh(roots);
+        index.markBackedUp(index.getFiles(roots), Collections.singletonList(new File(camera, "2017/video1.mp4")));
+        index.save();
+
+        MediaIndex reloaded = MediaIndex.load(indexFile, new TreeWalker());
+
+        assertThat(reloaded.count(roots).files, is(3));
+        assertThat(reloaded.count(roots).pending, is(1));
+        assertThat(reloaded.isBackedUp(new File(camera, "image1.jpg")), is(true));
+
+        File image2 = new File(camera, "2017/image2.jpg");
+
+        FileUtils.writeStringToFile(image2, "edited image2");
+        assertThat(image2.setLastModified(OLD_DATE + 5000), is(true));
+        assertThat(new File(camera, "2017").setLastModified(OLD_DATE + 1000), is(true));
+
+        reloaded.refresh(roots);
+
+        assertThat(reloaded.isBackedUp(image2), is(false));
+        assertThat(reloaded.isBackedUp(new File(camera, "image1.jpg")), is(true));
+        assertThat(reloaded.count(roots).pending, is(2));
+    }
+
+
+    @Test
+    public void should_not_mark_files_added_after_listing() throws Exception {
+
+        File camera = createSource();
+        List<File> roots = Collections.singletonList(camera);
+
+        MediaIndex index = MediaIndex.load(new File(tempFolder.getRoot(), MediaIndex.FILE_NAME), new TreeWalker());
+
+        index.refresh(roots);
+
+        List<FileEntry> listed = index.getFiles(roots);
+
+        File image3 = new File(camera, "image3.jpg");
+        FileUtils.writeStringToFile(image3, "image3");
+        assertThat(camera.setLastModified(OLD_DATE + 1000), is(true));
+
+        index.refresh(roots);
+        index.markBackedUp(listed, Collections.<File>emptyList());
+
+        assertThat(index.count(roots).files, is(4));
+        assertThat(index.count(roots).pending, is(1));
+        assertThat(index.isBackedUp(image3), is(false));
+    }
+
+
+    @Test
+    public void should_answer_counts_while_reading_folders() throws Exception {
+
+        File camera = createSource();
+        final List<File> roots = Collections.singletonList(camera);
+
+        final CountDownLatch listing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final MediaIndex index = MediaIndex.load(new File(tempFolder.getRoot(), MediaIndex.FILE_NAME), new TreeWalker() {
+            @Override
+            public List<FileEntry> list(File directory) {
+
+                listing.countDown();
+
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignore) {
+                }
+
+                return super.list(directory);
+            }
+        });
+
+        Thread refresh = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                index.refresh(roots);
+            }
+        });
+
+        refresh.start();
+
+        assertThat(listing.await(5, TimeUnit.SECONDS), is(true));
+
+        long start = System.nanoTime();
+
+        assertThat(index.count(roots).files, is(0));
+        assertThat(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), is(true));
+
+        release.countDown();
+        refresh.join();
+
+        assertThat(index.count(roots).files, is(3));
+    }
+
+
+    @Test
+    public void should_start_empty_when_index_is_corrupt() throws Exception {
+
+        File indexFile = new File(tempFolder.getRoot(), MediaIndex.FILE_NAME);
+
+        FileUtils.writeStringToFile(indexFile, "copit-media-index\t1\nfolder\t1\t2\t/sdcard/DCIM\n");
+
+        MediaIndex index = MediaIndex.load(indexFile, new TreeWalker());
+
+        assertThat(index.count(Collections.singletonList(new File("/sdcard/DCIM"))).files, is(0));
+    }
+
+
+    /**
+     * Crea un origen con fechas antiguas, para que el índice se fíe de la fecha de las carpetas
+     */
+    private File createSource() throws IOException {
+
+        File camera = tempFolder.newFolder("Camera");
+
+        FileUtils.writeStringToFile(new File(camera, "image1.jpg"), "image1");
+        FileUtils.writeStringToFile(new File(camera, "2017/image2.jpg"), "image2");
+        FileUtils.writeStringToFile(new File(camera, "2017/video1.mp4"), "video1");
+
+        for (File file : new File[]{new File(camera, "2017"), camera}) {
+            assertThat(file.setLastModified(OLD_DATE), is(true));
+        }
+
+        return camera;
+    }
+
+
+    /**
+     * Lee los atributos con java.io contando las veces que se le llama
+     */
+    private static class CountingStat implements FileStat {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public FileEntry stat(File file) {
+
+            calls.incrementAndGet();
+
+            return TreeWalker.JAVA_IO.stat(file);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package es.rodalo.copit;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import es.rodalo.copit.utils.CancellationToken;
+import es.rodalo.copit.utils.CopyJob;
+import es.rodalo.copit.utils.JobQueue;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relacionados con la cola de copias pedidas
+ */
+public class JobQueueUnitTest {
+
+    private static final CopyJob CAMERA = createJob("DCIM/Camera");
+    private static final CopyJob WHATSAPP = createJob("WhatsApp/Media/WhatsApp Images");
+
+
+    @Test
+    public void should_join_requests_for_the_same_copy() throws Exception {
+
+        BlockingRunner runner = new BlockingRunner();
+        JobQueue queue = new JobQueue(Executors.newSingleThreadExecutor(), runner);
+
+        assertThat(queue.submit(CAMERA), is(true));
+        runner.started.await(5, TimeUnit.SECONDS);
+
+        assertThat(queue.submit(createJob("DCIM/Camera")), is(false));
+        assertThat(queue.submit(WHATSAPP), is(true));
+        assertThat(queue.submit(createJob("WhatsApp/Media/WhatsApp Images")), is(false));
+
+        runner.release.countDown();
+        runner.idle.await(5, TimeUnit.SECONDS);
+
+        assertThat(runner.jobs, is(Arrays.asList(CAMERA, WHATSAPP)));
+        assertThat(queue.isIdle(), is(true));
+    }
+
+
+    @Test
+    public void should_run_the_same_copy_again_when_finished() throws Exception {
+
+        BlockingRunner runner = new BlockingRunner();
+        runner.release.countDown();
+
+        JobQueue queue = new JobQueue(Executors.newSingleThreadExecutor(), runner);
+
+        queue.submit(CAMERA);
+        runner.idle.await(5, TimeUnit.SECONDS);
+
+        assertThat(queue.submit(CAMERA), is(true));
+    }
+
+
+    @Test
+    public void should_cancel_running_copy_and_discard_pending() throws Exception {
+
+        BlockingRunner runner = new BlockingRunner();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        JobQueue queue = new JobQueue(executor, runner);
+
+        queue.submit(CAMERA);
+        runner.started.await(5, TimeUnit.SECONDS);
+        queue.submit(WHATSAPP);
+
+        queue.cancelAll();
+
+        assertThat(runner.cancellation.isCancelled(), is(true));
+
+        runner.release.countDown();
+        runner.idle.await(5, TimeUnit.SECONDS);
+
+        assertThat(runner.jobs, is(Collections.singletonList(CAMERA)));
+    }
+
+
+    @Test
+    public void should_notify_idle_before_accepting_another_copy() throws Exception {
+
+        BlockingRunner runner = new BlockingRunner();
+        runner.release.countDown();
+
+        JobQueue queue = new JobQueue(Executors.newSingleThreadExecutor(), runner);
+        runner.queue = queue;
+
+        queue.submit(CAMERA);
+        runner.idle.await(5, TimeUnit.SECONDS);
+
+        assertThat(runner.idleWithQueueLocked, is(true));
+    }
+
+
+    private static CopyJob createJob(String source) {
+
+        return new CopyJob(Collections.singletonList(new File("/storage/emulated/0", source)),
+                new File("/mnt/media_rw/USB"), "backup", CopyJob.Mode.BACKUP);
+    }
+
+
+    /**
+     * Anota las copias que hace y espera a que se le deje terminar la primera
+     */
+    private static class BlockingRunner implements JobQueue.Runner {
+
+        final List<CopyJob> jobs = Collections.synchronizedList(new ArrayList<CopyJob>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch idle = new CountDownLatch(1);
+
+        volatile CancellationToken cancellation;
+        volatile JobQueue queue;
+        volatile boolean idleWithQueueLocked;
+
+        @Override
+        public void run(CopyJob job, CancellationToken cancellation) {
+
+            this.cancellation = cancellation;
+
+            jobs.add(job);
+            started.countDown();
+
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignore) {
+            }
+        }
+
+        @Override
+        public void onIdle() {
+            idleWithQueueLocked = queue != null && Thread.holdsLock(queue);
+            idle.countDown();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import es.rodalo.copit.utils.BackupManifest;
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.Files;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relacionados con el registro de archivos copiados
+ */
+public class ManifestUnitTest {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_rebuild_manifest_from_destination_when_missing() throws Exception {
+
+        File backup = tempFolder.newFolder("test-backup");
+
+        FileUtils.writeStringToFile(new File(backup, "Camera/image1.png"), "image1");
+        FileUtils.writeStringToFile(new File(backup, "Camera/image2.png"), "image2");
+
+        BackupManifest manifest = BackupManifest.load(backup);
+
+        assertThat(manifest.size(), is(2));
+    }
+
+
+    @Test
+    public void should_rebuild_manifest_when_corrupt() throws Exception {
+
+        File backup = tempFolder.newFolder("test-backup");
+
+        File image = new File(backup, "Camera/image1.png");
+        FileUtils.writeStringToFile(image, "image1");
+
+        BackupManifest manifest = BackupManifest.load(backup);
+        manifest.put(new File(backup, "Camera/missing.png"), 10, 10, null);
+        manifest.save();
+
+        File manifestFile = new File(backup, BackupManifest.FILE_NAME);
+        String content = FileUtils.readFileToString(manifestFile);
+        FileUtils.writeStringToFile(manifestFile, content.substring(0, content.length() / 2));
+
+        manifest = BackupManifest.load(backup);
+
+        assertThat(manifest.size(), is(1));
+        assertThat(manifest.isUpToDate(image, image.length(), image.lastModified()), is(true));
+    }
+
+
+    @Test
+    public void should_not_copy_files_already_in_manifest() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File backup = tempFolder.newFolder("test-backup");
+        File dest = new File(backup, "Camera");
+
+        assertThat(dest.mkdir(), is(true));
+
+        FileUtils.writeStringToFile(new File(source, "image1.png"), "image1");
+        FileUtils.writeStringToFile(new File(source, "image2.png"), "image2");
+
+        BackupManifest manifest = BackupManifest.load(backup);
+
+        Files.copyFolder(source, dest, new CopyEngine().manifest(manifest), null);
+        manifest.save();
+
+        assertThat(dest.list().length, is(2));
+
+        // Si el registro dice que ya está copiado no se consulta el destino
+
+        assertThat(new File(dest, "image1.png").delete(), is(true));
+
+        manifest = BackupManifest.load(backup);
+
+        Files.copyFolder(source, dest, new CopyEngine().manifest(manifest), null);
+
+        assertThat(dest.list().length, is(1));
+        assertThat(manifest.size(), is(2));
+    }
+
+
+    @Test
+    public void should_store_duplicated_content_once() throws Exception {
+
+        File camera = tempFolder.newFolder("Camera");
+        File whatsapp = tempFolder.newFolder("WhatsApp");
+        File backup = tempFolder.newFolder("test-backup");
+
+        FileUtils.writeStringToFile(new File(camera, "image1.jpg"), "same content");
+        FileUtils.writeStringToFile(new File(whatsapp, "IMG-001.jpg"), "same content");
+        FileUtils.writeStringToFile(new File(whatsapp, "IMG-002.jpg"), "other content");
+
+        BackupManifest manifest = BackupManifest.load(backup);
+        CopyEngine engine = new CopyEngine().manifest(manifest).deduplicate(true);
+
+        File cameraBackup = new File(backup, "Camera");
+        File whatsappBackup = new File(backup, "WhatsApp");
+
+        assertThat(cameraBackup.mkdir(), is(true));
+        assertThat(whatsappBackup.mkdir(), is(true));
+
+        Files.copyFolder(camera, cameraBackup, engine, null);
+        Files.copyFolder(whatsapp, whatsappBackup, engine, null);
+
+        assertThat(new File(cameraBackup, "image1.jpg").exists(), is(true));
+        assertThat(new File(whatsappBackup, "IMG-001.jpg").exists(), is(false));
+        assertThat(new File(whatsappBackup, "IMG-002.jpg").exists(), is(true));
+        assertThat(manifest.size(), is(3));
+    }
+
+
+    @Test
+    public void should_not_copy_again_renamed_files() throws Exception {
+
+        File source = tempFolder.newFolder("Camera");
+        File backup = tempFolder.newFolder("test-backup");
+        File dest = new File(backup, "Camera");
+
+        assertThat(dest.mkdir(), is(true));
+
+        File image = new File(source, "image1.jpg");
+        FileUtils.writeStringToFile(image, "image content");
+
+        Files.copyFolder(source, dest, new CopyEngine().manifest(BackupManifest.load(backup)), null);
+
+        // Sin registro guardado: la huella del archivo ya copiado se calcula cuando hace falta
+
+        File renamed = new File(source, "renamed.jpg");
+
+        assertThat(image.renameTo(renamed), is(true));
+
+        BackupManifest manifest = BackupManifest.load(backup);
+
+        Files.copyFolder(source, dest, new CopyEngine().manifest(manifest).deduplicate(true), null);
+        manifest.save();
+
+        assertThat(dest.list().length, is(1));
+        assertThat(manifest.isUpToDate(new File(dest, "renamed.jpg"), renamed.length(), renamed.lastModified()), is(true));
+        assertThat(BackupManifest.load(backup).size(), is(2));
+    }
+
+
+    @Test
+    public void should_keep_content_of_duplicates_when_stored_file_changes() throws Exception {
+
+        File camera = tempFolder.newFolder("Camera");
+        File whatsapp = tempFolder.newFolder("WhatsApp");
+        File backup = tempFolder.newFolder("test-backup");
+
+        File photo = new File(camera, "a.jpg");
+
+        FileUtils.writeStringToFile(photo, "original");
+        FileUtils.writeStringToFile(new File(whatsapp, "IMG-001.jpg"), "original");
+
+        BackupManifest manifest = BackupManifest.load(backup);
+        CopyEngine engine = new CopyEngine().manifest(manifest).deduplicate(true);
+
+        File cameraBackup = new File(backup, "Camera");
+        File whatsappBackup = new File(backup, "WhatsApp");
+
+        assertThat(cameraBackup.mkdir(), is(true));
+        assertThat(whatsappBackup.mkdir(), is(true));
+
+        Files.copyFolder(camera, cameraBackup, engine, null);
+        Files.copyFolder(whatsapp, whatsappBackup, engine, null);
+
+        FileUtils.writeStringToFile(photo, "cropped");
+        assertThat(photo.setLastModified(1000000000000L), is(true));
+
+        Files.copyFolder(camera, cameraBackup, engine, null);
+
+        File duplicate = new File(whatsappBackup, "IMG-001.jpg");
+
+        assertThat(FileUtils.readFileToString(new File(cameraBackup, "a.jpg")), is("cropped"));
+        assertThat(FileUtils.readFileToString(manifest.getStoredFile(duplicate)), is("original"));
+    }
+}
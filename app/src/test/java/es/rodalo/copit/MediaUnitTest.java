@@ -0,0 +1,82 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.MediaSnapshot;
+import es.rodalo.copit.utils.TreeWalker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relacionados con la clasificación de las imágenes y vídeos de los orígenes
+ */
+public class MediaUnitTest {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_classify_files_by_extension() {
+
+        assertThat(Files.getMediaType("IMG_0001.JPG"), is(Files.MediaType.IMAGE));
+        assertThat(Files.getMediaType("holidays.jpeg"), is(Files.MediaType.IMAGE));
+        assertThat(Files.getMediaType("VID_0001.mp4"), is(Files.MediaType.VIDEO));
+        assertThat(Files.getMediaType("notes.txt"), is(nullValue()));
+        assertThat(Files.getMediaType("mp4"), is(nullValue()));
+    }
+
+
+    @Test
+    public void should_count_images_and_videos_of_every_path() throws Exception {
+
+        File camera = tempFolder.newFolder("Camera");
+        File whatsapp = tempFolder.newFolder("WhatsApp");
+
+        FileUtils.writeStringToFile(new File(camera, "image1.jpg"), "image1");
+        FileUtils.writeStringToFile(new File(camera, "2017/video1.mp4"), "video1");
+        FileUtils.writeStringToFile(new File(camera, ".thumbnails/notes.txt"), "notes");
+        FileUtils.writeStringToFile(new File(whatsapp, "image2.PNG"), "image2");
+        FileUtils.writeStringToFile(new File(whatsapp, "video2.mov"), "video2");
+
+        MediaSnapshot media = MediaSnapshot.scan(Arrays.asList(camera, whatsapp), new TreeWalker());
+
+        assertThat(media.getImageCount(), is(2));
+        assertThat(media.getVideoCount(), is(2));
+    }
+
+
+    @Test
+    public void should_order_images_of_every_path_by_date() throws Exception {
+
+        File camera = tempFolder.newFolder("Camera");
+        File whatsapp = tempFolder.newFolder("WhatsApp");
+
+        File old = new File(camera, "old.jpg");
+        File recent = new File(whatsapp, "recent.jpg");
+        File middle = new File(camera, "2017/middle.jpg");
+
+        for (File image : new File[]{old, recent, middle}) {
+            FileUtils.writeStringToFile(image, image.getName());
+        }
+
+        assertThat(old.setLastModified(1000000000000L), is(true));
+        assertThat(middle.setLastModified(1000000002000L), is(true));
+        assertThat(recent.setLastModified(1000000004000L), is(true));
+
+        MediaSnapshot media = MediaSnapshot.scan(Arrays.asList(camera, whatsapp), new TreeWalker());
+
+        assertThat(media.getRecentImages().nextPage(10), is(Arrays.asList(recent, middle, old)));
+        assertThat(MediaSnapshot.scan(Collections.<File>emptyList(), new TreeWalker()).getImageCount(), is(0));
+    }
+}
@@ -0,0 +1,173 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.CopyPlan;
+import es.rodalo.copit.utils.FileEntry;
+import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.RunHistory;
+import es.rodalo.copit.utils.RunMetrics;
+import es.rodalo.copit.utils.RunSummary;
+import es.rodalo.copit.utils.TreeWalker;
+import es.rodalo.copit.utils.Volumes;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests relacionados con los datos de cada ejecución de la copia y su historial
+ */
+public class MetricsUnitTest {
+
+    private static final long SCAN_DELAY = 500;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_count_copied_and_skipped_files() throws Exception {
+
+        File source = tempFolder.newFolder("Camera");
+        File dest = tempFolder.newFolder("test-dest");
+
+        FileUtils.writeStringToFile(new File(source, "image1.png"), "image1");
+        FileUtils.writeStringToFile(new File(source, "image2.png"), "image2");
+
+        Files.copyFolder(source, dest, null);
+
+        FileUtils.writeStringToFile(new File(source, "image3.png"), "image3");
+
+        RunMetrics metrics = new RunMetrics();
+
+        Files.copyFolder(source, dest, new CopyEngine().workers(2).metrics(metrics), null);
+
+        RunSummary summary = metrics.summarize(true, "device", dest.getPath());
+
+        assertThat(summary.filesScanned, is(3L));
+        assertThat(summary.filesSkipped, is(2L));
+        assertThat(summary.filesCopied, is(1L));
+        assertThat(summary.bytesCopied, is(6L));
+        assertThat(summary.sources.size(), is(1));
+        assertThat(summary.sources.get(0).name, is("Camera"));
+        assertTrue(summary.latencyP50Micros > 0);
+        assertTrue(summary.latencyP50Micros <= summary.latencyP99Micros);
+    }
+
+
+    @Test
+    public void should_measure_concurrent_scans_once() throws Exception {
+
+        File root = tempFolder.getRoot().getCanonicalFile();
+
+        Volumes volumes = Volumes.parse(Arrays.asList(
+                "/dev/internal " + root + "/internal ext4 rw 0 0",
+                "/dev/sdcard " + root + "/sd vfat rw 0 0"));
+
+        File camera = new File(root, "internal/Camera");
+        File whatsapp = new File(root, "sd/WhatsApp");
+
+        FileUtils.writeStringToFile(new File(camera, "image1.png"), "image1");
+        FileUtils.writeStringToFile(new File(whatsapp, "image2.png"), "image2");
+
+        Map<File, File> folders = new LinkedHashMap<>();
+        folders.put(camera, tempFolder.newFolder("dest-camera"));
+        folders.put(whatsapp, tempFolder.newFolder("dest-whatsapp"));
+
+        TreeWalker slowWalker = new TreeWalker() {
+            @Override
+            public List<FileEntry> list(File directory) {
+                try {
+                    Thread.sleep(SCAN_DELAY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.list(directory);
+            }
+        };
+
+        RunMetrics metrics = new RunMetrics();
+
+        new CopyEngine().volumes(volumes).walker(slowWalker).metrics(metrics).plan(folders, new CopyPlan());
+
+        RunSummary summary = metrics.summarize(true, "device", root.getPath());
+
+        assertThat(summary.filesScanned, is(2L));
+        assertTrue(summary.scanMillis >= SCAN_DELAY);
+        assertTrue(summary.scanMillis < 2 * SCAN_DELAY);
+    }
+
+
+    @Test
+    public void should_keep_only_the_last_runs() throws Exception {
+
+        RunHistory history = new RunHistory(tempFolder.getRoot(), 3);
+
+        for (int i = 0; i < 5; i++) {
+            history.add(createSummary(i));
+        }
+
+        List<RunSummary> runs = history.getRuns();
+
+        assertThat(runs.size(), is(3));
+        assertThat(runs.get(0).startTime, is(2L));
+        assertThat(runs.get(2).startTime, is(4L));
+    }
+
+
+    @Test
+    public void should_read_back_saved_runs() throws Exception {
+
+        RunHistory history = new RunHistory(tempFolder.getRoot());
+
+        RunSummary summary = new RunSummary(1000, false, "Samsung GT-I9300", "/storage/usb disk\t1",
+                10, 4, 6, 4096, 5, 200, 7, 64, 512, 1024,
+                Collections.singletonList(new RunSummary.Source("WhatsApp Images:2,3", 4, 4096, 100)));
+
+        history.add(summary);
+
+        RunSummary read = history.getRuns().get(0);
+
+        assertThat(read.toLine(), is(summary.toLine()));
+        assertThat(read.destination, is("/storage/usb disk\t1"));
+        assertThat(read.sources.get(0).name, is("WhatsApp Images:2,3"));
+        assertThat(read.sources.get(0).getBytesPerSecond(), is(40960L));
+        assertThat(read.success, is(false));
+    }
+
+
+    @Test
+    public void should_ignore_corrupt_history_lines() throws Exception {
+
+        RunHistory history = new RunHistory(tempFolder.getRoot());
+
+        history.add(createSummary(1));
+
+        File file = new File(tempFolder.getRoot(), RunHistory.FILE_NAME);
+        FileUtils.writeStringToFile(file, "garbage\n", true);
+
+        history.add(createSummary(2));
+
+        assertThat(history.getRuns().size(), is(2));
+    }
+
+
+    private RunSummary createSummary(long startTime) {
+
+        return new RunSummary(startTime, true, "device", "/storage/usbdisk",
+                0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                Collections.<RunSummary.Source>emptyList());
+    }
+}
@@ -0,0 +1,129 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.CopyPlan;
+import es.rodalo.copit.utils.CopyProgress;
+import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.ProgressPublisher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests relacionados con los avisos de progreso de la copia
+ */
+public class ProgressUnitTest {
+
+    private static final long INTERVAL_MILLIS = 100;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_limit_progress_updates_when_copying_many_small_files() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        int files = 2000;
+
+        for (int i = 0; i < files; i++) {
+            FileUtils.writeStringToFile(new File(source, "screenshot" + i + ".png"), "screenshot" + i);
+        }
+
+        CountingCallback counter = new CountingCallback();
+
+        long start = System.currentTimeMillis();
+
+        Files.copyFolder(source, dest, new ProgressPublisher(counter, INTERVAL_MILLIS));
+
+        long elapsed = System.currentTimeMillis() - start;
+
+        // Como mucho un aviso por intervalo, más el primero y el final
+
+        long maxUpdates = elapsed / INTERVAL_MILLIS + 2;
+
+        assertTrue(counter.count + " updates in " + elapsed + "ms", counter.count <= maxUpdates);
+        assertTrue(counter.count < files);
+    }
+
+
+    @Test
+    public void should_always_deliver_final_progress() throws Exception {
+
+        CountingCallback counter = new CountingCallback();
+
+        ProgressPublisher publisher = new ProgressPublisher(counter, 60 * 1000);
+
+        publisher.onProgress(new CopyProgress(0, 3, 0, 300, 0, CopyProgress.UNKNOWN));
+        publisher.onProgress(new CopyProgress(1, 3, 100, 300, 0, CopyProgress.UNKNOWN));
+        publisher.onProgress(new CopyProgress(2, 3, 200, 300, 0, CopyProgress.UNKNOWN));
+        publisher.onProgress(new CopyProgress(3, 3, 300, 300, 0, 0));
+        publisher.onProgress(new CopyProgress(3, 3, 300, 300, 0, 0));
+
+        assertThat(counter.count, is(2));
+        assertThat(counter.last.isComplete(), is(true));
+        assertThat(counter.last.bytes, is(300L));
+    }
+
+
+    @Test
+    public void should_not_go_back_when_a_file_grows_after_planning() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        File video = new File(source, "video.mp4");
+        FileUtils.writeByteArrayToFile(video, new byte[1000]);
+        FileUtils.writeStringToFile(new File(source, "image.jpg"), "image");
+
+        CopyPlan plan = new CopyPlan();
+        new CopyEngine().plan(source, dest, plan);
+
+        FileUtils.writeByteArrayToFile(video, new byte[500], true);
+
+        final List<CopyProgress> updates = new ArrayList<>();
+
+        new CopyEngine().execute(plan, new Files.CopyProgressCallback() {
+            @Override
+            public void onProgress(CopyProgress progress) {
+                updates.add(progress);
+            }
+        });
+
+        long bytes = 0;
+
+        for (CopyProgress progress : updates) {
+            assertTrue(progress.bytes >= bytes);
+            assertTrue(progress.bytes <= progress.totalBytes);
+            assertTrue(progress.remainingMillis >= 0 || progress.remainingMillis == CopyProgress.UNKNOWN);
+            bytes = progress.bytes;
+        }
+
+        assertThat(bytes, is(plan.getPendingBytes()));
+    }
+
+
+    private static class CountingCallback implements Files.CopyProgressCallback {
+
+        int count;
+        CopyProgress last;
+
+        @Override
+        public void onProgress(CopyProgress progress) {
+            count += 1;
+            last = progress;
+        }
+    }
+}
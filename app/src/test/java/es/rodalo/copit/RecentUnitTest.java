@@ -0,0 +1,106 @@
+package es.rodalo.copit;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import es.rodalo.copit.utils.FileEntry;
+import es.rodalo.copit.utils.RecentImages;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relacionados con la selección por páginas de las imágenes más recientes
+ */
+public class RecentUnitTest {
+
+
+    @Test
+    public void should_merge_sources_from_newest_to_oldest() {
+
+        List<FileEntry> camera = Arrays.asList(image("Camera/a.jpg", 10), image("Camera/b.jpg", 30));
+        List<FileEntry> whatsapp = Arrays.asList(image("WhatsApp/c.jpg", 20), image("WhatsApp/d.jpg", 40));
+
+        RecentImages images = new RecentImages(Arrays.asList(camera, whatsapp));
+
+        assertThat(images.nextPage(3), is(Arrays.asList(
+                new File("WhatsApp/d.jpg"), new File("Camera/b.jpg"), new File("WhatsApp/c.jpg"))));
+        assertThat(images.hasMore(), is(true));
+        assertThat(images.nextPage(3), is(Collections.singletonList(new File("Camera/a.jpg"))));
+        assertThat(images.hasMore(), is(false));
+    }
+
+
+    @Test
+    public void should_page_through_every_image_once_in_order() {
+
+        Random random = new Random(1);
+
+        List<List<FileEntry>> sources = new ArrayList<>();
+        List<FileEntry> all = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+
+            List<FileEntry> source = new ArrayList<>();
+
+            for (int j = 0; j < 500; j++) {
+
+                // Muchas fechas repetidas para comprobar que no se pierden ni repiten imágenes entre páginas
+
+                FileEntry entry = image("source" + i + "/image" + j + ".jpg", random.nextInt(50));
+                source.add(entry);
+                all.add(entry);
+            }
+
+            sources.add(source);
+        }
+
+        RecentImages images = new RecentImages(sources);
+        List<File> paged = new ArrayList<>();
+
+        while (images.hasMore()) {
+            paged.addAll(images.nextPage(60));
+        }
+
+        assertThat(paged.size(), is(all.size()));
+        assertThat(new HashSet<>(paged).size(), is(all.size()));
+
+        for (int i = 1; i < paged.size(); i++) {
+            assertThat(lastModified(paged.get(i - 1), all) >= lastModified(paged.get(i), all), is(true));
+        }
+    }
+
+
+    @Test
+    public void should_have_nothing_without_images() {
+
+        RecentImages images = new RecentImages(Collections.singletonList(Collections.<FileEntry>emptyList()));
+
+        assertThat(images.hasMore(), is(false));
+        assertThat(images.nextPage(60).isEmpty(), is(true));
+    }
+
+
+    private static FileEntry image(String path, long lastModified) {
+        return new FileEntry(new File(path), false, 1, lastModified);
+    }
+
+
+    private static long lastModified(File file, List<FileEntry> entries) {
+
+        for (FileEntry entry : entries) {
+            if (entry.file.equals(file)) {
+                return entry.lastModified;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown " + file);
+    }
+}
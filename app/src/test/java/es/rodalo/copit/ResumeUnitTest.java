@@ -0,0 +1,189 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.ResumableCopy;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests relacionados con la copia de archivos que se puede continuar si se interrumpe
+ */
+public class ResumeUnitTest {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_resume_after_interruption_at_random_offsets() throws Exception {
+
+        Random random = new Random(5);
+
+        for (int i = 0; i < 10; i++) {
+
+            File video = createVideo("video" + i + ".mp4", 1024 * 1024 + random.nextInt(CHUNK_SIZE), random);
+            File copy = new File(tempFolder.getRoot(), "copy" + i + ".mp4");
+
+            long interruptAt = CHUNK_SIZE + random.nextInt((int) video.length() - CHUNK_SIZE);
+
+            interruptedCopy(video, copy, interruptAt);
+
+            assertThat(copy.exists(), is(false));
+
+            // Lo escrito después del último punto de control no debe tenerse en cuenta
+
+            byte[] garbage = new byte[random.nextInt(CHUNK_SIZE)];
+            random.nextBytes(garbage);
+            FileUtils.writeByteArrayToFile(new File(copy.getPath() + ResumableCopy.PARTIAL_SUFFIX), garbage, true);
+
+            long resumed = new ResumableCopy(video, copy).chunkSize(CHUNK_SIZE).getResumeOffset();
+
+            assertTrue("should keep what was copied", resumed >= interruptAt && resumed < interruptAt + CHUNK_SIZE);
+
+            assertThat(countedCopy(video, copy), is(video.length() - resumed));
+
+            assertCompleted(video, copy);
+        }
+    }
+
+
+    @Test
+    public void should_restart_when_partial_file_was_truncated() throws Exception {
+
+        Random random = new Random(7);
+
+        File video = createVideo("video.mp4", 1024 * 1024, random);
+        File copy = new File(tempFolder.getRoot(), "copy.mp4");
+
+        interruptedCopy(video, copy, video.length() / 2);
+
+        RandomAccessFile partial = new RandomAccessFile(copy.getPath() + ResumableCopy.PARTIAL_SUFFIX, "rw");
+        partial.setLength(random.nextInt(CHUNK_SIZE));
+        partial.close();
+
+        assertThat(countedCopy(video, copy), is(video.length()));
+
+        assertCompleted(video, copy);
+    }
+
+
+    @Test
+    public void should_restart_when_partial_file_is_corrupt() throws Exception {
+
+        Random random = new Random(11);
+
+        File video = createVideo("video.mp4", 1024 * 1024, random);
+        File copy = new File(tempFolder.getRoot(), "copy.mp4");
+
+        interruptedCopy(video, copy, video.length() / 2);
+
+        long offset = new ResumableCopy(video, copy).chunkSize(CHUNK_SIZE).getResumeOffset();
+
+        RandomAccessFile partial = new RandomAccessFile(copy.getPath() + ResumableCopy.PARTIAL_SUFFIX, "rw");
+        partial.seek(offset - 1 - random.nextInt(1024));
+        partial.write(~partial.read());
+        partial.close();
+
+        assertThat(countedCopy(video, copy), is(video.length()));
+
+        assertCompleted(video, copy);
+    }
+
+
+    @Test
+    public void should_restart_when_source_has_changed() throws Exception {
+
+        Random random = new Random(13);
+
+        File video = createVideo("video.mp4", 1024 * 1024, random);
+        File copy = new File(tempFolder.getRoot(), "copy.mp4");
+
+        interruptedCopy(video, copy, video.length() / 2);
+
+        assertThat(video.setLastModified(video.lastModified() + 60000), is(true));
+
+        assertThat(countedCopy(video, copy), is(video.length()));
+
+        assertCompleted(video, copy);
+    }
+
+
+    private File createVideo(String name, int size, Random random) throws IOException {
+
+        byte[] content = new byte[size];
+        random.nextBytes(content);
+
+        File video = new File(tempFolder.getRoot(), name);
+        FileUtils.writeByteArrayToFile(video, content);
+
+        assertThat(video.setLastModified(1000000000000L), is(true));
+
+        return video;
+    }
+
+
+    private void interruptedCopy(File video, File copy, final long interruptAt) throws IOException {
+
+        try {
+
+            new ResumableCopy(video, copy).chunkSize(CHUNK_SIZE).copy(new Files.CopyListener() {
+
+                private long copied = 0;
+
+                @Override
+                public void onBytesCopied(long count) throws IOException {
+
+                    copied += count;
+
+                    if (copied >= interruptAt) {
+                        throw new IOException("USB unplugged");
+                    }
+                }
+            });
+
+        } catch (IOException ignore) {
+
+            return;
+        }
+
+        throw new AssertionError("Copy should have been interrupted");
+    }
+
+
+    private long countedCopy(File video, File copy) throws IOException {
+
+        final long[] copied = new long[1];
+
+        new ResumableCopy(video, copy).chunkSize(CHUNK_SIZE).copy(new Files.CopyListener() {
+            @Override
+            public void onBytesCopied(long count) {
+                copied[0] += count;
+            }
+        });
+
+        return copied[0];
+    }
+
+
+    private void assertCompleted(File video, File copy) throws IOException {
+
+        assertThat(FileUtils.contentEquals(video, copy), is(true));
+        assertThat(copy.lastModified(), is(video.lastModified()));
+        assertThat(new File(copy.getPath() + ResumableCopy.PARTIAL_SUFFIX).exists(), is(false));
+        assertThat(new File(copy.getPath() + ResumableCopy.CHECKPOINT_SUFFIX).exists(), is(false));
+    }
+}
@@ -0,0 +1,141 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import es.rodalo.copit.utils.MediaIndex;
+import es.rodalo.copit.utils.MediaScanner;
+import es.rodalo.copit.utils.RecentImages;
+import es.rodalo.copit.utils.TreeWalker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relacionados con el recorrido de los orígenes en segundo plano
+ */
+public class ScannerUnitTest {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ScheduledExecutorService executor;
+    private MediaIndex index;
+
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        index = MediaIndex.load(new File(tempFolder.getRoot(), MediaIndex.FILE_NAME), new TreeWalker());
+    }
+
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+
+    @Test
+    public void should_deliver_counts_before_images() throws Exception {
+
+        File camera = tempFolder.newFolder("Camera");
+        File whatsapp = tempFolder.newFolder("WhatsApp");
+
+        FileUtils.writeStringToFile(new File(camera, "image1.jpg"), "image1");
+        FileUtils.writeStringToFile(new File(camera, "video1.mp4"), "video1");
+        FileUtils.writeStringToFile(new File(whatsapp, "image2.jpg"), "image2");
+
+        RecordingListener listener = new RecordingListener();
+
+        new MediaScanner(index, executor, new DirectExecutor()).scan(Arrays.asList(camera, whatsapp), listener);
+
+        assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(listener.events, is(Arrays.asList("counts 1 1", "counts 2 1", "images 2")));
+    }
+
+
+    @Test
+    public void should_deliver_only_the_last_of_several_scans() throws Exception {
+
+        File camera = tempFolder.newFolder("Camera");
+        FileUtils.writeStringToFile(new File(camera, "image1.jpg"), "image1");
+
+        MediaScanner scanner = new MediaScanner(index, executor, new DirectExecutor());
+
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+
+        scanner.scan(Collections.singletonList(camera), first);
+        scanner.scan(Collections.singletonList(camera), second);
+
+        assertThat(second.done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(first.events.isEmpty(), is(true));
+    }
+
+
+    @Test
+    public void should_not_deliver_after_cancel() throws Exception {
+
+        File camera = tempFolder.newFolder("Camera");
+        FileUtils.writeStringToFile(new File(camera, "image1.jpg"), "image1");
+
+        MediaScanner scanner = new MediaScanner(index, executor, new DirectExecutor());
+        RecordingListener listener = new RecordingListener();
+
+        scanner.scan(Collections.singletonList(camera), listener);
+        scanner.scan(Collections.singletonList(camera), listener);
+        scanner.cancel();
+
+        assertThat(listener.done.await(1, TimeUnit.SECONDS), is(false));
+        assertThat(listener.events.isEmpty(), is(true));
+    }
+
+
+    /**
+     * Entrega los resultados en el mismo hilo del recorrido
+     */
+    private static class DirectExecutor implements Executor {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+
+    /**
+     * Anota los resultados recibidos
+     */
+    private static class RecordingListener implements MediaScanner.Listener {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void onCounts(int imageCount, int videoCount) {
+            events.add("counts " + imageCount + " " + videoCount);
+        }
+
+        @Override
+        public void onImages(RecentImages images) {
+            events.add("images " + images.nextPage(10).size());
+            done.countDown();
+        }
+    }
+}
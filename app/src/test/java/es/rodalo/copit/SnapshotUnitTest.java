@@ -0,0 +1,212 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import es.rodalo.copit.utils.BackupManifest;
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.FileLinker;
+import es.rodalo.copit.utils.SnapshotStore;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relacionados con las copias fechadas que comparten los archivos sin cambios
+ */
+public class SnapshotUnitTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_reference_unchanged_files_from_previous_snapshot() throws Exception {
+
+        File source = createSource();
+        File root = tempFolder.newFolder("test-backup");
+
+        File first = backup(source, root, 1, null);
+
+        FileUtils.writeStringToFile(new File(source, "image2.jpg"), "edited image2");
+
+        File second = backup(source, root, 2, null);
+
+        assertThat(new File(second, "Camera/image1.jpg").exists(), is(false));
+        assertThat(FileUtils.readFileToString(new File(second, "Camera/image2.jpg")), is("edited image2"));
+        assertThat(FileUtils.readFileToString(new File(first, "Camera/image2.jpg")), is("image2"));
+
+        BackupManifest manifest = BackupManifest.load(root);
+
+        assertThat(manifest.getStoredFile(new File(second, "Camera/image1.jpg")), is(new File(first, "Camera/image1.jpg")));
+        assertThat(manifest.isUpToDate(new File(second, "Camera/image3.jpg"),
+                new File(source, "image3.jpg").length(), new File(source, "image3.jpg").lastModified()), is(true));
+    }
+
+
+    @Test
+    public void should_link_unchanged_files_when_possible() throws Exception {
+
+        File source = createSource();
+        File root = tempFolder.newFolder("test-backup");
+
+        File first = backup(source, root, 1, new NioLinker());
+        File second = backup(source, root, 2, new NioLinker());
+
+        for (String name : new String[]{"image1.jpg", "image2.jpg", "image3.jpg"}) {
+            assertThat(java.nio.file.Files.isSameFile(new File(first, "Camera/" + name).toPath(),
+                    new File(second, "Camera/" + name).toPath()), is(true));
+        }
+    }
+
+
+    @Test
+    public void should_keep_referenced_files_when_pruning() throws Exception {
+
+        File source = createSource();
+        File root = tempFolder.newFolder("test-backup");
+
+        File first = backup(source, root, 1, null);
+
+        FileUtils.writeStringToFile(new File(source, "image2.jpg"), "edited image2");
+        backup(source, root, 2, null);
+
+        FileUtils.writeStringToFile(new File(source, "image3.jpg"), "edited image3");
+        File third = backup(source, root, 3, null);
+
+        BackupManifest manifest = BackupManifest.load(root);
+
+        List<File> removed = new SnapshotStore(root).prune(manifest, 1);
+
+        assertThat(removed.size(), is(2));
+        assertThat(first.exists(), is(false));
+        assertThat(new SnapshotStore(root).getSnapshots().size(), is(1));
+
+        BackupManifest reloaded = BackupManifest.load(root);
+
+        for (File file : source.listFiles()) {
+
+            File stored = reloaded.getStoredFile(new File(third, "Camera/" + file.getName()));
+
+            assertThat(FileUtils.contentEquals(file, stored), is(true));
+        }
+    }
+
+
+    @Test
+    public void should_keep_previous_snapshot_when_continuing_after_edit() throws Exception {
+
+        File source = createSource();
+        File root = tempFolder.newFolder("test-backup");
+
+        File first = backup(source, root, 1, new NioLinker());
+        File second = copy(source, root, 2, new NioLinker());
+
+        File edited = new File(source, "image2.jpg");
+        FileUtils.writeStringToFile(edited, "edited image2");
+        assertThat(edited.setLastModified(1000000100000L), is(true));
+
+        assertThat(copy(source, root, 3, new NioLinker()), is(second));
+
+        assertThat(FileUtils.readFileToString(new File(first, "Camera/image2.jpg")), is("image2"));
+        assertThat(FileUtils.readFileToString(new File(second, "Camera/image2.jpg")), is("edited image2"));
+    }
+
+
+    @Test
+    public void should_continue_incomplete_snapshot() throws Exception {
+
+        File root = tempFolder.newFolder("test-backup");
+
+        SnapshotStore store = new SnapshotStore(root);
+
+        File first = store.begin(new Date(DAY));
+
+        assertThat(store.begin(new Date(2 * DAY)), is(first));
+
+        store.complete(first);
+
+        assertThat(store.begin(new Date(2 * DAY)).equals(first), is(false));
+        assertThat(store.getLatestComplete(), is(first));
+    }
+
+
+    /**
+     * Hace una copia fechada del origen en el día indicado
+     */
+    private File backup(File source, File root, int day, FileLinker linker) throws Exception {
+
+        File snapshot = copy(source, root, day, linker);
+
+        new SnapshotStore(root).complete(snapshot);
+
+        return snapshot;
+    }
+
+
+    /**
+     * Copia el origen en la copia fechada que toque, sin marcarla como terminada
+     */
+    private File copy(File source, File root, int day, FileLinker linker) throws Exception {
+
+        BackupManifest manifest = BackupManifest.load(root);
+        SnapshotStore store = new SnapshotStore(root);
+
+        File previous = store.getLatestComplete();
+        File snapshot = store.begin(new Date(day * DAY));
+        File dest = new File(snapshot, "Camera");
+
+        assertThat(dest.mkdirs() || dest.isDirectory(), is(true));
+
+        new CopyEngine().manifest(manifest).linker(linker).snapshot(snapshot, previous).copy(source, dest, null);
+
+        manifest.save();
+
+        return snapshot;
+    }
+
+
+    private File createSource() throws IOException {
+
+        File source = tempFolder.newFolder("Camera");
+
+        for (int i = 1; i <= 3; i++) {
+            File image = new File(source, "image" + i + ".jpg");
+            FileUtils.writeStringToFile(image, "image" + i);
+            assertThat(image.setLastModified(1000000000000L + i * 1000), is(true));
+        }
+
+        return source;
+    }
+
+
+    /**
+     * Crea enlaces duros con las utilidades de Java
+     */
+    private static class NioLinker implements FileLinker {
+
+        @Override
+        public boolean link(File src, File dest) {
+
+            try {
+
+                java.nio.file.Files.createLink(dest.toPath(), src.toPath());
+
+                return true;
+
+            } catch (IOException e) {
+
+                return false;
+            }
+        }
+    }
+}
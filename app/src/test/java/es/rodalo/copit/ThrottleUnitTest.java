@@ -0,0 +1,153 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import es.rodalo.copit.utils.CancellationToken;
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.IoThrottle;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests relacionados con la limitación de la velocidad de copia
+ */
+public class ThrottleUnitTest {
+
+    private static final int MEGABYTE = 1024 * 1024;
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_limit_total_speed_of_all_threads() throws Exception {
+
+        final IoThrottle throttle = new IoThrottle(4 * MEGABYTE, MEGABYTE / 4);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        long start = System.nanoTime();
+
+        try {
+
+            List<Future<Void>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 4; i++) {
+
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int chunk = 0; chunk < 16; chunk++) {
+                            throttle.acquire(64 * 1024, null);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+        } finally {
+
+            executor.shutdownNow();
+        }
+
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        // 4 MB a 4 MB/s, menos lo que se puede copiar de golpe al principio
+
+        assertTrue("took " + millis + "ms", millis >= 700);
+    }
+
+
+    @Test
+    public void should_slow_down_when_chunks_take_longer() throws Exception {
+
+        IoThrottle throttle = new IoThrottle(20 * MEGABYTE, 0).adaptive(true);
+
+        throttle.onChunkCopied(8 * MEGABYTE, 80000000);
+        assertThat(throttle.getRate(), is(20L * MEGABYTE));
+
+        throttle.onChunkCopied(8 * MEGABYTE, 400000000);
+        assertThat(throttle.getRate(), is(10L * MEGABYTE));
+
+        for (int i = 0; i < 100; i++) {
+            throttle.onChunkCopied(8 * MEGABYTE, 80000000);
+        }
+
+        assertThat(throttle.getRate(), is(20L * MEGABYTE));
+    }
+
+
+    @Test
+    public void should_limit_speed_when_slowing_down_without_limit() throws Exception {
+
+        IoThrottle throttle = new IoThrottle(IoThrottle.UNLIMITED, 0).adaptive(true);
+
+        throttle.onChunkCopied(8 * MEGABYTE, 100000000);
+        assertThat(throttle.getRate(), is(IoThrottle.UNLIMITED));
+
+        // 8 MB en un segundo: se sigue a la mitad
+
+        throttle.onChunkCopied(8 * MEGABYTE, 1000000000);
+        assertThat(throttle.getRate(), is(4L * MEGABYTE));
+    }
+
+
+    @Test(expected = InterruptedIOException.class)
+    public void should_stop_waiting_when_cancelled() throws Exception {
+
+        IoThrottle throttle = new IoThrottle(MEGABYTE, MEGABYTE);
+
+        CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+
+        throttle.acquire(60 * MEGABYTE, cancellation);
+    }
+
+
+    @Test
+    public void should_copy_the_same_files_when_limited() throws Exception {
+
+        File source = tempFolder.newFolder("test-source");
+        File dest = tempFolder.newFolder("test-dest");
+
+        Random random = new Random(1);
+
+        for (int i = 0; i < 4; i++) {
+            byte[] content = new byte[MEGABYTE / 2];
+            random.nextBytes(content);
+            FileUtils.writeByteArrayToFile(new File(source, "image" + i + ".jpg"), content);
+        }
+
+        long start = System.nanoTime();
+
+        Files.copyFolder(source, dest, new CopyEngine().workers(2).throttle(new IoThrottle(4 * MEGABYTE, MEGABYTE / 2)), null);
+
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("took " + millis + "ms", millis >= 300);
+
+        for (File file : source.listFiles()) {
+            assertThat(FileUtils.contentEquals(file, new File(dest, file.getName())), is(true));
+        }
+    }
+}
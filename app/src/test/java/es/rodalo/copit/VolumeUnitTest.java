@@ -0,0 +1,195 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.CopyPlan;
+import es.rodalo.copit.utils.Volumes;
+import es.rodalo.copit.utils.copy.CopyStrategies;
+import es.rodalo.copit.utils.copy.CopyStrategy;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests relacionados con los volúmenes físicos de orígenes y destino
+ */
+public class VolumeUnitTest {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_find_physical_volume_of_android_storage() throws Exception {
+
+        Volumes volumes = Volumes.parse(Arrays.asList(
+                "rootfs / rootfs ro 0 0",
+                "/dev/block/dm-0 /data ext4 rw 0 0",
+                "/data/media /storage/emulated sdcardfs rw 0 0",
+                "/dev/block/vold/public:179,65 /mnt/media_rw/1234-5678 vfat rw 0 0",
+                "/mnt/media_rw/1234-5678 /storage/1234-5678 sdcardfs rw 0 0",
+                "/dev/block/sda1 /mnt/media_rw/USB\\040DISK vfat rw 0 0"));
+
+        File camera = new File("/storage/emulated/0/DCIM/Camera");
+        File sdCard = new File("/storage/1234-5678/DCIM/Camera");
+        File usb = new File("/mnt/media_rw/USB DISK/copit_backup");
+
+        assertThat(volumes.getVolume(camera), is("/dev/block/dm-0"));
+        assertThat(volumes.isRemovable(camera), is(false));
+
+        assertThat(volumes.getVolume(sdCard), is("/dev/block/vold/public:179,65"));
+        assertThat(volumes.isRemovable(sdCard), is(true));
+
+        assertThat(volumes.getVolume(usb), is("/dev/block/sda1"));
+        assertThat(volumes.isRemovable(usb), is(true));
+    }
+
+
+    @Test
+    public void should_limit_concurrent_copies_on_removable_volume() throws Exception {
+
+        File root = tempFolder.getRoot().getCanonicalFile();
+
+        Volumes volumes = Volumes.parse(Arrays.asList(
+                "/dev/internal " + root + "/internal ext4 rw 0 0",
+                "/dev/sdcard " + root + "/sd vfat rw 0 0"));
+
+        File camera = createImages(new File(root, "internal/Camera"), 10);
+        File whatsapp = createImages(new File(root, "sd/WhatsApp"), 10);
+
+        ConcurrencyStrategy strategy = new ConcurrencyStrategy();
+
+        copy(new CopyEngine().workers(4).volumes(volumes).strategy(strategy), camera, whatsapp, new File(root, "sd/backup"));
+
+        assertTrue("max " + strategy.max.get(), strategy.max.get() <= 2);
+    }
+
+
+    @Test
+    public void should_overlap_copies_on_internal_volumes() throws Exception {
+
+        File root = tempFolder.getRoot().getCanonicalFile();
+
+        Volumes volumes = Volumes.parse(Arrays.asList(
+                "/dev/internal " + root + " ext4 rw 0 0"));
+
+        File camera = createImages(new File(root, "Camera"), 10);
+        File whatsapp = createImages(new File(root, "WhatsApp"), 10);
+
+        ConcurrencyStrategy strategy = new ConcurrencyStrategy();
+
+        copy(new CopyEngine().workers(4).volumes(volumes).strategy(strategy), camera, whatsapp, new File(root, "backup"));
+
+        assertTrue("max " + strategy.max.get(), strategy.max.get() > 2);
+    }
+
+
+    @Test
+    public void should_plan_several_sources_in_the_given_order() throws Exception {
+
+        File root = tempFolder.getRoot().getCanonicalFile();
+
+        Volumes volumes = Volumes.parse(Arrays.asList(
+                "/dev/internal " + root + "/internal ext4 rw 0 0",
+                "/dev/sdcard " + root + "/sd vfat rw 0 0"));
+
+        File camera = createImages(new File(root, "sd/Camera"), 5);
+        File whatsapp = createImages(new File(root, "internal/WhatsApp"), 3);
+        File screenshots = createImages(new File(root, "sd/Screenshots"), 4);
+
+        Map<File, File> folders = new LinkedHashMap<>();
+        folders.put(camera, tempFolder.newFolder("backup-camera"));
+        folders.put(whatsapp, tempFolder.newFolder("backup-whatsapp"));
+        folders.put(screenshots, tempFolder.newFolder("backup-screenshots"));
+
+        CopyPlan plan = new CopyPlan();
+        new CopyEngine().volumes(volumes).plan(folders, plan);
+
+        assertThat(plan.getPendingFiles(), is(12));
+        assertThat(plan.getItems().get(0).source, is("Camera"));
+        assertThat(plan.getItems().get(5).source, is("WhatsApp"));
+        assertThat(plan.getItems().get(8).source, is("Screenshots"));
+    }
+
+
+    private File createImages(File folder, int count) throws IOException {
+
+        for (int i = 0; i < count; i++) {
+            FileUtils.writeStringToFile(new File(folder, "image" + i + ".jpg"), "image" + i);
+        }
+
+        return folder;
+    }
+
+
+    private void copy(CopyEngine engine, File camera, File whatsapp, File backup) throws Exception {
+
+        Map<File, File> folders = new LinkedHashMap<>();
+        folders.put(camera, new File(backup, camera.getName()));
+        folders.put(whatsapp, new File(backup, whatsapp.getName()));
+
+        for (File dest : folders.values()) {
+            assertThat(dest.mkdirs(), is(true));
+        }
+
+        CopyPlan plan = new CopyPlan();
+        engine.plan(folders, plan);
+        engine.execute(plan, null);
+
+        assertThat(FileUtils.listFiles(backup, null, true).size(), is(20));
+    }
+
+
+    /**
+     * Estrategia de copia lenta que anota cuántas copias ha habido a la vez
+     */
+    private static class ConcurrencyStrategy implements CopyStrategy {
+
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+
+        @Override
+        public String getName() {
+            return "concurrency";
+        }
+
+        @Override
+        public long copy(FileChannel in, FileChannel out, long position, long count, MessageDigest digest) throws IOException {
+
+            int current = active.incrementAndGet();
+
+            while (current > max.get()) {
+                max.compareAndSet(max.get(), Math.max(max.get(), current));
+            }
+
+            try {
+
+                Thread.sleep(30);
+
+                return CopyStrategies.POOLED.copy(in, out, position, count, digest);
+
+            } catch (InterruptedException e) {
+
+                throw new IOException(e);
+
+            } finally {
+
+                active.decrementAndGet();
+            }
+        }
+    }
+}
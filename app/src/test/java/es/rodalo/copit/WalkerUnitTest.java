@@ -0,0 +1,105 @@
+package es.rodalo.copit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.rodalo.copit.utils.CopyEngine;
+import es.rodalo.copit.utils.FileEntry;
+import es.rodalo.copit.utils.FileStat;
+import es.rodalo.copit.utils.Files;
+import es.rodalo.copit.utils.TreeWalker;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests relacionados con el recorrido de carpetas leyendo los atributos una sola vez
+ */
+public class WalkerUnitTest {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void should_read_attributes_of_each_entry() throws Exception {
+
+        File source = createSource();
+
+        List<FileEntry> entries = new TreeWalker().list(source);
+
+        assertThat(entries.size(), is(3));
+
+        for (FileEntry entry : entries) {
+
+            assertThat(entry.directory, is(entry.file.isDirectory()));
+
+            if (!entry.directory) {
+                assertThat(entry.length, is(entry.file.length()));
+                assertThat(entry.lastModified, is(entry.file.lastModified()));
+            }
+        }
+    }
+
+
+    @Test
+    public void should_find_media_in_subfolders() throws Exception {
+
+        File source = createSource();
+
+        assertThat(Files.getImages(source).size(), is(2));
+        assertThat(Files.getVideos(source).size(), is(1));
+    }
+
+
+    @Test
+    public void should_read_each_entry_once_when_copying() throws Exception {
+
+        File source = createSource();
+        File dest = tempFolder.newFolder("test-dest");
+
+        CountingStat stat = new CountingStat();
+
+        Files.copyFolder(source, dest, new CopyEngine().walker(new TreeWalker(stat)), null);
+
+        assertThat(stat.calls.get(), is(5));
+        assertThat(FileUtils.readFileToString(new File(dest, "2017/video.mp4")), is("video"));
+    }
+
+
+    private File createSource() throws IOException {
+
+        File source = tempFolder.newFolder("test-source");
+
+        FileUtils.writeStringToFile(new File(source, "image1.jpg"), "image1");
+        FileUtils.writeStringToFile(new File(source, "notes.txt"), "notes");
+        FileUtils.writeStringToFile(new File(source, "2017/IMAGE2.JPG"), "image2");
+        FileUtils.writeStringToFile(new File(source, "2017/video.mp4"), "video");
+
+        return source;
+    }
+
+
+    /**
+     * Lee los atributos con java.io contando las veces que se le llama
+     */
+    private static class CountingStat implements FileStat {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public FileEntry stat(File file) {
+
+            calls.incrementAndGet();
+
+            return TreeWalker.JAVA_IO.stat(file);
+        }
+    }
+}
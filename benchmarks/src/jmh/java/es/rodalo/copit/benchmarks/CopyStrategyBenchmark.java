@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import es.rodalo.copit.utils.copy.CopyStrategies;
+import es.rodalo.copit.utils.copy.CopyStrategy;
+
+/**
+ * Mide cuánto tarda cada estrategia en copiar un archivo completo de distintos tamaños
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CopyStrategyBenchmark {
+
+    private static final int WRITE_BLOCK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * La aplicación copia por bloques de este tamaño (Files.TRANSFER_CHUNK_SIZE), ajustado a cada
+     * estrategia con CopyStrategies.getChunkSize, para poder informar del progreso y cancelar.
+     * Files no se compila con los benchmarks, así que se repite aquí el valor.
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Desde una foto pequeña hasta un vídeo largo (10 KB, 1 MB, 100 MB, 2 GB)
+     */
+    @Param({"10240", "1048576", "104857600", "2147483648"})
+    public long size;
+
+    @Param({"stream", "channel", "mmap", "pooled"})
+    public String strategyName;
+
+    private CopyStrategy strategy;
+    private long chunkSize;
+    private File srcFile;
+    private File destFile;
+
+
+    @Setup(Level.Trial)
+    public void createSource() throws IOException {
+
+        strategy = CopyStrategies.byName(strategyName);
+        chunkSize = CopyStrategies.getChunkSize(strategy, TRANSFER_CHUNK_SIZE);
+
+        srcFile = File.createTempFile("copit-src", ".mp4");
+        destFile = File.createTempFile("copit-dest", ".mp4");
+
+        // Contenido aleatorio para que el sistema de archivos no pueda comprimir ni dejar huecos
+
+        byte[] block = new byte[(int) Math.min(WRITE_BLOCK_SIZE, size)];
+        new Random(size).nextBytes(block);
+
+        RandomAccessFile output = new RandomAccessFile(srcFile, "rw");
+
+        try {
+
+            long written = 0;
+
+            while (written < size) {
+                int count = (int) Math.min(block.length, size - written);
+                output.write(block, 0, count);
+                written += count;
+            }
+
+        } finally {
+
+            output.close();
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        srcFile.delete();
+        destFile.delete();
+    }
+
+
+    @Benchmark
+    public long copy() throws IOException {
+
+        FileInputStream input = new FileInputStream(srcFile);
+        FileOutputStream output = new FileOutputStream(destFile);
+
+        try {
+
+            long copied = 0;
+
+            while (copied < size) {
+                copied += strategy.copy(input.getChannel(), output.getChannel(), copied, Math.min(chunkSize, size - copied), null);
+            }
+
+            output.getFD().sync();
+
+            return copied;
+
+        } finally {
+
+            output.close();
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016, Jose Luis Rodriguez Alonso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.rodalo.copit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import es.rodalo.copit.utils.FileEntry;
+import es.rodalo.copit.utils.FileStat;
+import es.rodalo.copit.utils.TreeWalker;
+
+/**
+ * Mide cuánto tarda en recorrerse un árbol de 100.000 archivos leyendo tipo, tamaño y fecha de cada uno
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TreeWalkerBenchmark {
+
+    private static final int FOLDERS = 100;
+    private static final int FILES_PER_FOLDER = 1000;
+
+    /**
+     * "listFiles" es el recorrido anterior (isDirectory, length y lastModified por separado),
+     * "io" el recorredor con java.io y "nio" con una sola lectura de atributos por entrada,
+     * como hace PosixFileStat en el dispositivo
+     */
+    @Param({"listFiles", "io", "nio"})
+    public String walkerName;
+
+    private File root;
+    private TreeWalker walker;
+
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+
+        root = java.nio.file.Files.createTempDirectory("copit-tree").toFile();
+
+        for (int i = 0; i < FOLDERS; i++) {
+
+            File folder = new File(root, "folder" + i);
+
+            if (!folder.mkdir()) {
+                throw new IOException("Can't create folder " + folder);
+            }
+
+            for (int j = 0; j < FILES_PER_FOLDER; j++) {
+                FileOutputStream output = new FileOutputStream(new File(folder, "IMG_" + j + ".jpg"));
+                output.write(j);
+                output.close();
+            }
+        }
+
+        walker = walkerName.equals("nio") ? new TreeWalker(new NioFileStat()) : new TreeWalker();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void deleteTree() {
+
+        for (File folder : root.listFiles()) {
+
+            for (File file : folder.listFiles()) {
+                file.delete();
+            }
+
+            folder.delete();
+        }
+
+        root.delete();
+    }
+
+
+    @Benchmark
+    public long walk() {
+        return walkerName.equals("listFiles") ? walkFiles(root) : walkEntries(root);
+    }
+
+
+    private long walkFiles(File directory) {
+
+        long total = 0;
+
+        for (File file : directory.listFiles()) {
+
+            if (file.isDirectory()) {
+                total += walkFiles(file);
+            } else {
+                total += file.length() + file.lastModified();
+            }
+        }
+
+        return total;
+    }
+
+
+    private long walkEntries(File directory) {
+
+        long total = 0;
+
+        for (FileEntry entry : walker.list(directory)) {
+
+            if (entry.directory) {
+                total += walkEntries(entry.file);
+            } else {
+                total += entry.length + entry.lastModified;
+            }
+        }
+
+        return total;
+    }
+
+
+    /**
+     * Lee todos los atributos con una sola llamada al sistema
+     */
+    private static class NioFileStat implements FileStat {
+
+        @Override
+        public FileEntry stat(File file) {
+
+            try {
+
+                BasicFileAttributes attributes = java.nio.file.Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+
+                if (attributes.isDirectory()) {
+                    return new FileEntry(file, true, 0, 0);
+                }
+
+                return new FileEntry(file, false, attributes.size(), attributes.lastModifiedTime().toMillis());
+
+            } catch (IOException e) {
+
+                return null;
+            }
+        }
+    }
+}